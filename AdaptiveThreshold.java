@@ -0,0 +1,53 @@
+// Sliding-window peak threshold (mean + multiplier * std) updated in O(1) per sample.
+// Once the window is full, each new sample replaces the oldest one with a single Welford-style
+// update, so there is no second pass and loud segments only raise the threshold locally.
+public class AdaptiveThreshold {
+
+    private final double multiplier;
+    private final double[] window;
+    private final int minFill;
+    private int position = 0;
+    private int count = 0;
+    private double mean = 0;
+    private double m2 = 0;
+
+    public AdaptiveThreshold(int windowSize, double multiplier) {
+        this.window = new double[windowSize];
+        this.multiplier = multiplier;
+        this.minFill = Math.max(1, windowSize / 8);
+    }
+
+    public void add(double x) {
+        if (count < window.length) {
+            count++;
+            double delta = x - mean;
+            mean += delta / count;
+            m2 += delta * (x - mean);
+        } else {
+            double old = window[position];
+            double oldMean = mean;
+            mean += (x - old) / count;
+            m2 += (x - old) * (x - mean + old - oldMean);
+            if (m2 < 0) {
+                m2 = 0; // rounding can push a near-zero variance slightly negative
+            }
+        }
+        window[position] = x;
+        position = position + 1 == window.length ? 0 : position + 1;
+    }
+
+    public void reset() {
+        position = 0;
+        count = 0;
+        mean = 0;
+        m2 = 0;
+    }
+
+    // No peak can pass until the window has seen enough samples for a meaningful estimate.
+    public double getThreshold() {
+        if (count < minFill) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return mean + multiplier * Math.sqrt(m2 / count);
+    }
+}
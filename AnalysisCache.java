@@ -0,0 +1,367 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+// On-disk cache of finished file analyses, one binary sidecar per recording and parameter set.
+// Sidecars are named by the SHA-256 of the WAV contents, so renamed or copied recordings still hit;
+// an index from path|size|mtime to hash avoids re-hashing files that have not changed. A hit maps
+// the sidecar and wraps the pyramid levels in place; only the peak list is copied onto the heap.
+// The directory is kept under maxBytes by evicting least recently used sidecars, and index entries
+// for recordings that have since been deleted or changed are dropped when the cache is opened.
+//
+// Sidecar layout (little-endian): magic, version, sampleCount, bpm, sdnn, rmssd, pnn50, fftBpm,
+// fftConfidence, peakCount, levelCount, levelSizes[levelCount], padding to 8, peaks[peakCount],
+// then mins and maxs per level.
+public class AnalysisCache {
+
+    private static final int MAGIC = 0x43414248; // "HBAC"
+    private static final int VERSION = 2;
+    private static final int FIXED_HEADER = 72;
+    private static final String SUFFIX = ".hbc";
+    private static final String INDEX_FILE = "index.properties";
+
+    private final File dir;
+    private final long maxBytes;
+    private final Properties index = new Properties();
+
+    public static final class Entry {
+        private final long sampleCount;
+        private final double bpm;
+        private final double sdnn;
+        private final double rmssd;
+        private final double pnn50;
+        private final double fftBpm;
+        private final double fftConfidence;
+        private final PeakStore peakIndices;
+        private final MinMaxPyramid pyramid;
+
+        public Entry(long sampleCount, double bpm, double sdnn, double rmssd, double pnn50,
+                     double fftBpm, double fftConfidence, PeakStore peakIndices, MinMaxPyramid pyramid) {
+            this.sampleCount = sampleCount;
+            this.bpm = bpm;
+            this.sdnn = sdnn;
+            this.rmssd = rmssd;
+            this.pnn50 = pnn50;
+            this.fftBpm = fftBpm;
+            this.fftConfidence = fftConfidence;
+            this.peakIndices = peakIndices;
+            this.pyramid = pyramid;
+        }
+
+        public long getSampleCount() {
+            return sampleCount;
+        }
+
+        public double getBpm() {
+            return bpm;
+        }
+
+        public double getSdnn() {
+            return sdnn;
+        }
+
+        public double getRmssd() {
+            return rmssd;
+        }
+
+        public double getPnn50() {
+            return pnn50;
+        }
+
+        public double getFftBpm() {
+            return fftBpm;
+        }
+
+        public double getFftConfidence() {
+            return fftConfidence;
+        }
+
+        public PeakStore getPeakIndices() {
+            return peakIndices;
+        }
+
+        public MinMaxPyramid getPyramid() {
+            return pyramid;
+        }
+    }
+
+    public AnalysisCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        dir.mkdirs();
+        File indexFile = new File(dir, INDEX_FILE);
+        if (indexFile.exists()) {
+            try (Reader in = new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8)) {
+                index.load(in);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            pruneIndex();
+        }
+    }
+
+    // -Dheartbeat.cache.dir (default ~/.heartbeatGrapher/cache) and -Dheartbeat.cache.max.mb (default 1024).
+    public static AnalysisCache openDefault() {
+        String dir = System.getProperty("heartbeat.cache.dir",
+                System.getProperty("user.home") + File.separator + ".heartbeatGrapher" + File.separator + "cache");
+        return new AnalysisCache(new File(dir), Long.getLong("heartbeat.cache.max.mb", 1024) << 20);
+    }
+
+    // The cached analysis of this recording with these parameters, or null.
+    public synchronized Entry load(File recording, String params) {
+        try {
+            String hash = contentHash(recording);
+            File sidecar = sidecarFor(hash, params);
+            if (!sidecar.isFile()) {
+                return null;
+            }
+            Entry entry = read(sidecar);
+            if (entry == null) {
+                sidecar.delete(); // Truncated or from an older format
+                return null;
+            }
+            sidecar.setLastModified(System.currentTimeMillis()); // LRU order
+            return entry;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public synchronized void store(File recording, String params, Entry entry) {
+        try {
+            String hash = contentHash(recording);
+            File sidecar = sidecarFor(hash, params);
+            File temp = File.createTempFile(hash, ".tmp", dir);
+            try {
+                write(temp, entry);
+                Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                temp.delete();
+            }
+            evict();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private File sidecarFor(String hash, String params) {
+        return new File(dir, hash + "-" + params + SUFFIX);
+    }
+
+    // Hash of the file contents, from the index when the file's path, size and mtime are unchanged.
+    private String contentHash(File recording) throws IOException {
+        String key = recording.getCanonicalPath() + "|" + recording.length() + "|" + recording.lastModified();
+        String hash = index.getProperty(key);
+        if (hash != null) {
+            return hash;
+        }
+        hash = sha256(recording);
+        index.setProperty(key, hash);
+        saveIndex();
+        return hash;
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private void saveIndex() throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(dir, INDEX_FILE)), StandardCharsets.UTF_8)) {
+            index.store(out, null);
+        }
+    }
+
+    private static long headerSize(int levelCount) {
+        return (FIXED_HEADER + 4L * levelCount + 7) & ~7L;
+    }
+
+    private static void write(File file, Entry entry) throws IOException {
+        MinMaxPyramid pyramid = entry.getPyramid();
+        PeakStore peaks = entry.getPeakIndices();
+        int levels = pyramid.getLevelCount();
+        long size = headerSize(levels) + 8L * peaks.size();
+        for (int level = 0; level < levels; level++) {
+            size += 8L * pyramid.getLevelSize(level);
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Levels are written through separate mappings so a single one never exceeds 2 GB
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize(levels) + 8L * peaks.size());
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(entry.getSampleCount())
+                    .putDouble(entry.getBpm()).putDouble(entry.getSdnn()).putDouble(entry.getRmssd()).putDouble(entry.getPnn50())
+                    .putDouble(entry.getFftBpm()).putDouble(entry.getFftConfidence())
+                    .putInt(peaks.size()).putInt(levels);
+            for (int level = 0; level < levels; level++) {
+                header.putInt(pyramid.getLevelSize(level));
+            }
+            header.position((int) headerSize(levels));
+            for (int i = 0; i < peaks.size(); i++) {
+                header.putLong(peaks.get(i));
+            }
+
+            long position = headerSize(levels) + 8L * peaks.size();
+            for (int level = 0; level < levels; level++) {
+                int levelSize = pyramid.getLevelSize(level);
+                MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, position, 8L * levelSize);
+                out.order(ByteOrder.LITTLE_ENDIAN);
+                out.asFloatBuffer().put(pyramid.getMins(level));
+                out.position(4 * levelSize);
+                out.asFloatBuffer().put(pyramid.getMaxs(level));
+                position += 8L * levelSize;
+            }
+            channel.force(false);
+            if (position != size) {
+                throw new IOException("Sidecar size mismatch: " + position + " != " + size);
+            }
+        }
+    }
+
+    private static Entry read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < FIXED_HEADER) {
+                return null;
+            }
+            ByteBuffer fixed = channel.map(FileChannel.MapMode.READ_ONLY, 0, FIXED_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            if (fixed.getInt() != MAGIC || fixed.getInt() != VERSION) {
+                return null;
+            }
+            long sampleCount = fixed.getLong();
+            double bpm = fixed.getDouble();
+            double sdnn = fixed.getDouble();
+            double rmssd = fixed.getDouble();
+            double pnn50 = fixed.getDouble();
+            double fftBpm = fixed.getDouble();
+            double fftConfidence = fixed.getDouble();
+            int peakCount = fixed.getInt();
+            int levels = fixed.getInt();
+            if (peakCount < 0 || levels < 0 || headerSize(levels) + 8L * peakCount > length) {
+                return null;
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize(levels) + 8L * peakCount)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.position(FIXED_HEADER);
+            int[] levelSizes = new int[levels];
+            long expected = headerSize(levels) + 8L * peakCount;
+            for (int level = 0; level < levels; level++) {
+                levelSizes[level] = header.getInt();
+                expected += 8L * levelSizes[level];
+            }
+            if (expected != length) {
+                return null;
+            }
+            header.position((int) headerSize(levels));
+            PeakStore peaks = new PeakStore(peakCount);
+            for (int i = 0; i < peakCount; i++) {
+                peaks.add(header.getLong());
+            }
+
+            // The mappings stay valid after the channel is closed
+            FloatBuffer[] mins = new FloatBuffer[levels];
+            FloatBuffer[] maxs = new FloatBuffer[levels];
+            long position = headerSize(levels) + 8L * peakCount;
+            for (int level = 0; level < levels; level++) {
+                int levelSize = levelSizes[level];
+                mins[level] = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * levelSize)
+                        .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                maxs[level] = channel.map(FileChannel.MapMode.READ_ONLY, position + 4L * levelSize, 4L * levelSize)
+                        .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                position += 8L * levelSize;
+            }
+            return new Entry(sampleCount, bpm, sdnn, rmssd, pnn50, fftBpm, fftConfidence, peaks, MinMaxPyramid.wrap(sampleCount, mins, maxs));
+        }
+    }
+
+    // Drops index entries whose recording no longer exists with the recorded size and mtime, or whose
+    // sidecars have all been removed; a changed recording gets a fresh entry the next time it is hashed.
+    private void pruneIndex() {
+        File[] sidecars = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        Set<String> cached = new HashSet<>();
+        if (sidecars != null) {
+            for (File sidecar : sidecars) {
+                cached.add(sidecar.getName().substring(0, sidecar.getName().indexOf('-')));
+            }
+        }
+        boolean changed = index.entrySet().removeIf(e -> !cached.contains(e.getValue()) || !isCurrent((String) e.getKey()));
+        if (changed) {
+            try {
+                saveIndex();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static boolean isCurrent(String key) {
+        int mtimeAt = key.lastIndexOf('|');
+        int sizeAt = mtimeAt > 0 ? key.lastIndexOf('|', mtimeAt - 1) : -1;
+        if (sizeAt < 0) {
+            return false;
+        }
+        try {
+            File recording = new File(key.substring(0, sizeAt));
+            return recording.isFile()
+                    && recording.length() == Long.parseLong(key.substring(sizeAt + 1, mtimeAt))
+                    && recording.lastModified() == Long.parseLong(key.substring(mtimeAt + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Deletes least recently used sidecars until the directory fits, then drops index entries for them.
+    private void evict() throws IOException {
+        File[] sidecars = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (sidecars == null) {
+            return;
+        }
+        long total = 0;
+        for (File sidecar : sidecars) {
+            total += sidecar.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(sidecars, Comparator.comparingLong(File::lastModified));
+        Set<String> remaining = new HashSet<>();
+        for (File sidecar : sidecars) {
+            long sidecarBytes = sidecar.length();
+            if (total > maxBytes && sidecar.delete()) {
+                total -= sidecarBytes;
+                continue;
+            }
+            remaining.add(sidecar.getName().substring(0, sidecar.getName().indexOf('-')));
+        }
+        index.values().removeIf(hash -> !remaining.contains(hash));
+        saveIndex();
+    }
+}
@@ -0,0 +1,29 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Worker pool shared by every live pipeline. A pipeline only holds a worker while it has captured
+// blocks to analyse, so idle sources cost nothing and the pool never needs more threads than cores.
+public class AnalysisScheduler {
+
+    private static final AnalysisScheduler SHARED = new AnalysisScheduler(Runtime.getRuntime().availableProcessors());
+
+    private final ExecutorService pool;
+
+    public AnalysisScheduler(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "heartbeat-analysis-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static AnalysisScheduler shared() {
+        return SHARED;
+    }
+
+    public void execute(Runnable task) {
+        pool.execute(task);
+    }
+}
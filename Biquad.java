@@ -0,0 +1,41 @@
+// Second-order IIR section (RBJ audio-EQ cookbook coefficients), transposed direct form II.
+// Two state variables and five multiplies per sample, no allocation.
+public class Biquad {
+
+    private final double b0, b1, b2, a1, a2;
+    private double z1, z2;
+
+    private Biquad(double b0, double b1, double b2, double a0, double a1, double a2) {
+        this.b0 = b0 / a0;
+        this.b1 = b1 / a0;
+        this.b2 = b2 / a0;
+        this.a1 = a1 / a0;
+        this.a2 = a2 / a0;
+    }
+
+    public static Biquad lowPass(double sampleRate, double cutoff, double q) {
+        double w0 = 2 * Math.PI * cutoff / sampleRate;
+        double alpha = Math.sin(w0) / (2 * q);
+        double cos = Math.cos(w0);
+        return new Biquad((1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    public static Biquad highPass(double sampleRate, double cutoff, double q) {
+        double w0 = 2 * Math.PI * cutoff / sampleRate;
+        double alpha = Math.sin(w0) / (2 * q);
+        double cos = Math.cos(w0);
+        return new Biquad((1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    public double process(double x) {
+        double y = b0 * x + z1;
+        z1 = b1 * x - a1 * y + z2;
+        z2 = b2 * x - a2 * y;
+        return y;
+    }
+
+    public void reset() {
+        z1 = 0;
+        z2 = 0;
+    }
+}
@@ -0,0 +1,29 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.io.IOException;
+
+// Where a LivePipeline gets its PCM from: a mixer line or a recording replayed at capture pace.
+// Only the pipeline's capture thread calls read; open and close happen around it.
+public interface CaptureSource {
+
+    String getName();
+
+    AudioFormat getFormat();
+
+    void open(int bufferBytes) throws LineUnavailableException, IOException;
+
+    // Live sources cannot be held back: when analysis is a whole ring behind, their audio is dropped.
+    // Other sources make the capture thread wait instead, so every frame gets analysed.
+    boolean isLive();
+
+    // Frames the source has delivered or buffered so far, to anchor the pipeline's sample clock.
+    long getLongFramePosition();
+
+    // Bytes that can be read without blocking.
+    int available();
+
+    // Blocks until some bytes are ready; returns -1 once the source has ended.
+    int read(byte[] buffer, int offset, int length);
+
+    void close();
+}
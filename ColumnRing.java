@@ -0,0 +1,68 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Rolling min/max summary of the live signal: one column per BUCKET samples, newest last.
+// The analysis thread appends and never waits; the display reads whatever columns are new since
+// its last frame. Old columns are overwritten, so readers stay within the last (capacity - SLACK)
+// columns and a slow frame can at worst draw one stale column, never block capture.
+public class ColumnRing {
+
+    public static final int BUCKET = MinMaxPyramid.BASE_BUCKET;
+    public static final int SLACK = 1024; // columns the writer may advance while a frame is being drawn
+
+    private final float[] mins;
+    private final float[] maxs;
+    private final int mask;
+    private final AtomicLong written = new AtomicLong();
+
+    // Writer state, only touched by the analysis thread
+    private float bucketMin = Float.POSITIVE_INFINITY;
+    private float bucketMax = Float.NEGATIVE_INFINITY;
+    private int bucketFill = 0;
+
+    // Enough room for historyColumns plus the slack.
+    public ColumnRing(int historyColumns) {
+        int capacity = Integer.highestOneBit(historyColumns + SLACK - 1) << 1;
+        mins = new float[capacity];
+        maxs = new float[capacity];
+        mask = capacity - 1;
+    }
+
+    public void add(double[] samples, int offset, int count) {
+        long w = written.get();
+        long start = w;
+        for (int i = offset; i < offset + count; i++) {
+            float v = (float) samples[i];
+            if (v < bucketMin) bucketMin = v;
+            if (v > bucketMax) bucketMax = v;
+            if (++bucketFill == BUCKET) {
+                mins[(int) (w & mask)] = bucketMin;
+                maxs[(int) (w & mask)] = bucketMax;
+                w++;
+                bucketMin = Float.POSITIVE_INFINITY;
+                bucketMax = Float.NEGATIVE_INFINITY;
+                bucketFill = 0;
+            }
+        }
+        if (w != start) {
+            written.lazySet(w);
+        }
+    }
+
+    // Sequence number of the next column to be written.
+    public long getWritten() {
+        return written.get();
+    }
+
+    // Oldest column a reader may still rely on.
+    public long getOldestReadable() {
+        return Math.max(0, written.get() - (mins.length - SLACK));
+    }
+
+    public float min(long column) {
+        return mins[(int) (column & mask)];
+    }
+
+    public float max(long column) {
+        return maxs[(int) (column & mask)];
+    }
+}
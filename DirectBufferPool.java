@@ -0,0 +1,44 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+// Recycles fixed-size direct buffers so socket reads go straight to native memory without a
+// new allocation per connection. At most maxPooled idle buffers are kept; extra ones are left to
+// the garbage collector. Not thread-safe: owned by a single selector thread.
+public class DirectBufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private int allocated = 0;
+
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    // A cleared buffer of bufferSize bytes.
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            allocated++;
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (free.size() < maxPooled) {
+            buffer.clear();
+            free.push(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    // Buffers ever allocated, pooled or not.
+    public int getAllocated() {
+        return allocated;
+    }
+}
@@ -0,0 +1,65 @@
+// In-place iterative radix-2 FFT of one fixed size. The twiddle factors and the bit-reversal
+// permutation are computed once, so a transform allocates nothing.
+public class Fft {
+
+    private final int size;
+    private final int[] reverse;
+    private final double[] cos;
+    private final double[] sin;
+
+    public Fft(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        this.size = size;
+        int bits = Integer.numberOfTrailingZeros(size);
+        reverse = new int[size];
+        for (int i = 0; i < size; i++) {
+            reverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        cos = new double[size / 2];
+        sin = new double[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            double angle = -2 * Math.PI * k / size;
+            cos[k] = Math.cos(angle);
+            sin[k] = Math.sin(angle);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // Forward transform of re + i*im, both of length size, in place.
+    public void transform(double[] re, double[] im) {
+        for (int i = 0; i < size; i++) {
+            int j = reverse[i];
+            if (j > i) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int length = 2; length <= size; length <<= 1) {
+            int half = length >> 1;
+            int step = size / length;
+            for (int start = 0; start < size; start += length) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * step];
+                    double wi = sin[k * step];
+                    int a = start + k;
+                    int b = a + half;
+                    double xr = re[b] * wr - im[b] * wi;
+                    double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+}
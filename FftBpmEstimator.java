@@ -0,0 +1,205 @@
+import java.util.Arrays;
+
+// BPM from the periodicity of the signal envelope instead of counted peaks, so no amplitude
+// threshold is involved. The input is rectified and averaged down to about ENVELOPE_RATE_HZ. Every
+// hop, the last WINDOW envelope values are mean-removed, zero-padded to twice their length and
+// autocorrelated through the FFT: power spectrum, then a second forward transform, which for a real
+// even spectrum is the inverse up to scale. The strongest lag between MIN_BPM and MAX_BPM, refined
+// by parabolic interpolation, gives the BPM, and the correlation at that lag is the confidence.
+// The biased correlation picks the lag, since it favours one beat over two; the unbiased one is
+// reported, so a perfectly periodic envelope scores 1. Work arrays are allocated up front.
+public class FftBpmEstimator {
+
+    public static final double ENVELOPE_RATE_HZ = 100;
+    public static final int WINDOW = 1024; // about 10 s of envelope
+    public static final double MIN_BPM = 40;
+    public static final double MAX_BPM = 200;
+    private static final double SUBHARMONIC_RATIO = 0.75; // a lag of L/2 or L/3 this strong is the real period
+
+    private final Fft fft = new Fft(2 * WINDOW);
+    private final int decimation;
+    private final double envelopeRate;
+    private final int hop;
+    private final int minLag;
+    private final int maxLag;
+
+    private final double[] history = new double[WINDOW]; // ring of envelope values
+    private long envelopeCount = 0;
+    private int sinceEstimate = 0;
+    private double rectifiedSum = 0;
+    private int rectifiedCount = 0;
+    private final double[] re = new double[2 * WINDOW];
+    private final double[] im = new double[2 * WINDOW];
+
+    // Latest window, and the average over every window so far
+    private double bpm = 0;
+    private double confidence = 0;
+    private final double[] biasedSum;
+    private final double[] unbiasedSum;
+    private int windows = 0;
+    private double pickedLag;
+
+    // inputRate is the rate of the samples passed to add; an estimate is made every hopSeconds.
+    public FftBpmEstimator(double inputRate, double hopSeconds) {
+        decimation = Math.max(1, (int) Math.round(inputRate / ENVELOPE_RATE_HZ));
+        envelopeRate = inputRate / decimation;
+        hop = Math.max(1, (int) Math.round(hopSeconds * envelopeRate));
+        minLag = Math.max(2, (int) Math.floor(60 * envelopeRate / MAX_BPM));
+        maxLag = Math.min(WINDOW / 2, (int) Math.ceil(60 * envelopeRate / MIN_BPM));
+        biasedSum = new double[maxLag + 2];
+        unbiasedSum = new double[maxLag + 2];
+    }
+
+    public void add(double[] samples, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            rectifiedSum += Math.abs(samples[i]);
+            if (++rectifiedCount == decimation) {
+                addEnvelopeValue(rectifiedSum / decimation);
+                rectifiedSum = 0;
+                rectifiedCount = 0;
+            }
+        }
+    }
+
+    // Envelope values already averaged over getDecimation() input samples each, e.g. by
+    // SampleKernels.rectifiedMeans. Not to be mixed with add inside one group of samples.
+    public void addEnvelope(double[] values, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            addEnvelopeValue(values[i]);
+        }
+    }
+
+    private void addEnvelopeValue(double value) {
+        history[(int) (envelopeCount++ % WINDOW)] = value;
+        if (++sinceEstimate >= hop && envelopeCount >= 2 * maxLag) {
+            estimate();
+        }
+    }
+
+    public int getDecimation() {
+        return decimation;
+    }
+
+    // Estimates over whatever has arrived since the last hop, e.g. at the end of a recording.
+    public void flush() {
+        if (sinceEstimate > 0 && envelopeCount >= 2 * maxLag) {
+            estimate();
+        }
+    }
+
+    // Forgets the envelope history, e.g. after a gap in the input; the averages are kept.
+    public void reset() {
+        envelopeCount = 0;
+        sinceEstimate = 0;
+        rectifiedSum = 0;
+        rectifiedCount = 0;
+        bpm = 0;
+        confidence = 0;
+    }
+
+    private void estimate() {
+        sinceEstimate = 0;
+        int n = (int) Math.min(envelopeCount, WINDOW);
+        long first = envelopeCount - n;
+        double mean = 0;
+        for (int i = 0; i < n; i++) {
+            re[i] = history[(int) ((first + i) % WINDOW)];
+            mean += re[i];
+        }
+        mean /= n;
+        for (int i = 0; i < n; i++) {
+            re[i] -= mean;
+        }
+        Arrays.fill(re, n, re.length, 0);
+        Arrays.fill(im, 0);
+
+        fft.transform(re, im);
+        for (int k = 0; k < re.length; k++) {
+            re[k] = re[k] * re[k] + im[k] * im[k];
+            im[k] = 0;
+        }
+        fft.transform(re, im);
+
+        double energy = re[0];
+        if (energy <= 0) {
+            bpm = 0;
+            confidence = 0;
+            return;
+        }
+        for (int lag = 0; lag < biasedSum.length; lag++) {
+            re[lag] /= energy;
+            biasedSum[lag] += re[lag];
+            unbiasedSum[lag] += re[lag] * n / (n - lag);
+        }
+        windows++;
+        bpm = bpmAt(re);
+        confidence = bpm > 0 ? unbiased(re[(int) Math.round(pickedLag)], n, pickedLag) : 0;
+    }
+
+    // BPM of the strongest local maximum of r in the lag range, or 0; leaves its lag in pickedLag.
+    private double bpmAt(double[] r) {
+        int best = -1;
+        for (int lag = minLag; lag <= maxLag; lag++) {
+            if (r[lag] > r[lag - 1] && r[lag] >= r[lag + 1] && (best < 0 || r[lag] > r[best])) {
+                best = lag;
+            }
+        }
+        if (best < 0 || r[best] <= 0) {
+            return 0;
+        }
+        // A strong peak at a whole fraction of the lag means the lag spans several beats
+        boolean shorter = true;
+        while (shorter) {
+            shorter = false;
+            for (int divisor = 2; divisor <= 3 && !shorter; divisor++) {
+                int candidate = localMax(r, best / divisor);
+                if (candidate >= minLag && r[candidate] >= SUBHARMONIC_RATIO * r[best]) {
+                    best = candidate;
+                    shorter = true;
+                }
+            }
+        }
+        double y0 = r[best - 1];
+        double y1 = r[best];
+        double y2 = r[best + 1];
+        double curvature = y0 - 2 * y1 + y2;
+        pickedLag = best + (curvature < 0 ? 0.5 * (y0 - y2) / curvature : 0);
+        return 60 * envelopeRate / pickedLag;
+    }
+
+    // Lag of the highest r within two lags of around.
+    private static int localMax(double[] r, int around) {
+        int best = -1;
+        for (int lag = Math.max(1, around - 2); lag <= around + 2; lag++) {
+            if (best < 0 || r[lag] > r[best]) {
+                best = lag;
+            }
+        }
+        return best;
+    }
+
+    private static double unbiased(double value, int n, double lag) {
+        return Math.max(0, Math.min(1, value * n / (n - lag)));
+    }
+
+    public double getBpm() {
+        return bpm;
+    }
+
+    // 0..1: how strongly the envelope repeats at the reported period.
+    public double getConfidence() {
+        return confidence;
+    }
+
+    // Average autocorrelation over every window so far; suits a whole recording.
+    public double getOverallBpm() {
+        return windows > 0 ? bpmAt(biasedSum) : 0;
+    }
+
+    public double getOverallConfidence() {
+        if (windows == 0 || bpmAt(biasedSum) == 0) {
+            return 0;
+        }
+        return Math.max(0, Math.min(1, unbiasedSum[(int) Math.round(pickedLag)] / windows));
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.Arrays;
+
+// Band-pass to the heart-sound band, full-wave rectify, then a moving-average envelope decimated to
+// about 1 kHz. Low-frequency thumps and mains hum fall outside the band, and detection runs on an
+// envelope ~44x shorter than the raw 44.1 kHz signal. Fixed cost per sample and no allocation
+// after construction.
+public class HeartSoundEnvelope implements SignalStage {
+
+    public static final double LOW_CUTOFF_HZ = 25;
+    public static final double HIGH_CUTOFF_HZ = 150;
+    private static final double ENVELOPE_RATE_HZ = 1000;
+    private static final double ENVELOPE_WINDOW_S = 0.02;
+    private static final double Q = Math.sqrt(0.5); // Butterworth response
+
+    private final Biquad highPass;
+    private final Biquad lowPass;
+    private final double[] window;
+    private final int decimation;
+    private int position = 0;
+    private int phase = 0;
+    private double sum = 0;
+
+    public HeartSoundEnvelope(double sampleRate) {
+        highPass = Biquad.highPass(sampleRate, LOW_CUTOFF_HZ, Q);
+        lowPass = Biquad.lowPass(sampleRate, HIGH_CUTOFF_HZ, Q);
+        window = new double[Math.max(1, (int) (sampleRate * ENVELOPE_WINDOW_S))];
+        decimation = Math.max(1, (int) Math.round(sampleRate / ENVELOPE_RATE_HZ));
+    }
+
+    @Override
+    public int process(double[] in, int offset, int count, double[] out, int outOffset) {
+        int written = 0;
+        for (int i = offset; i < offset + count; i++) {
+            double rectified = Math.abs(lowPass.process(highPass.process(in[i])));
+            sum += rectified - window[position];
+            window[position] = rectified;
+            if (++position == window.length) {
+                position = 0;
+                // Re-sum once per window so rounding in the running sum cannot drift over hours
+                sum = 0;
+                for (double v : window) {
+                    sum += v;
+                }
+            }
+
+            if (++phase == decimation) {
+                phase = 0;
+                out[outOffset + written++] = sum / window.length;
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public int maxOutput(int count) {
+        return count / decimation + 1;
+    }
+
+    @Override
+    public int getDecimation() {
+        return decimation;
+    }
+
+    @Override
+    public int getDelay() {
+        return window.length / 2;
+    }
+
+    @Override
+    public void reset() {
+        highPass.reset();
+        lowPass.reset();
+        Arrays.fill(window, 0);
+        position = 0;
+        phase = 0;
+        sum = 0;
+    }
+}
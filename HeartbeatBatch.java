@@ -0,0 +1,218 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Headless batch runner: analyses every WAV in the given directories/files without starting AWT.
+// Decoding runs on an I/O pool and peak detection on a CPU-sized ForkJoinPool; the number of
+// decoded recordings held in memory at once is bounded. Recordings too long to load are analysed
+// while they are read, so they stay on the I/O pool and never block a CPU worker on the disk.
+// Results are streamed as CSV or JSON lines.
+//
+// usage: java HeartbeatBatch [--format csv|json] [--out FILE] [--threads N] [--io-threads N] [--adaptive] [--band-pass] [--samples double|float|short] PATH...
+public class HeartbeatBatch {
+
+    private final ExecutorService ioPool;
+    private final ForkJoinPool cpuPool;
+    private final Semaphore inFlight;
+    private final boolean adaptiveThreshold;
+    private final boolean bandPassFilter;
+    private final RecordingAnalyzer.Storage storage;
+    private final ResultWriter writer;
+
+    public HeartbeatBatch(int cpuThreads, int ioThreads, boolean adaptiveThreshold, boolean bandPassFilter,
+                          RecordingAnalyzer.Storage storage, ResultWriter writer) {
+        this.ioPool = Executors.newFixedThreadPool(ioThreads, r -> {
+            Thread t = new Thread(r, "batch-io");
+            t.setDaemon(true);
+            return t;
+        });
+        this.cpuPool = new ForkJoinPool(cpuThreads);
+        this.inFlight = new Semaphore(cpuThreads * 2);
+        this.adaptiveThreshold = adaptiveThreshold;
+        this.bandPassFilter = bandPassFilter;
+        this.storage = storage;
+        this.writer = writer;
+    }
+
+    public void run(List<Path> files) throws InterruptedException {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        for (Path file : files) {
+            inFlight.acquire();
+            RecordingAnalyzer analyzer = new RecordingAnalyzer(adaptiveThreshold, bandPassFilter, false, cpuPool);
+            analyzer.setStorage(storage);
+            CompletableFuture<Void> task = CompletableFuture
+                    .supplyAsync(() -> load(file), ioPool)
+                    .thenCompose(data -> data != null
+                            ? CompletableFuture.runAsync(() -> analyze(analyzer, data), cpuPool)
+                            : CompletableFuture.runAsync(() -> analyzeStreaming(analyzer, file), ioPool))
+                    .handle((ignored, error) -> {
+                        if (error != null) {
+                            writer.writeError(file, error instanceof CompletionException ? error.getCause() : error);
+                        } else {
+                            writer.write(file, analyzer);
+                        }
+                        inFlight.release();
+                        return null;
+                    });
+            pending.add(task);
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        ioPool.shutdown();
+        cpuPool.shutdown();
+    }
+
+    private RecordingAnalyzer.Samples load(Path file) {
+        try {
+            return RecordingAnalyzer.load(file.toFile(), storage);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static void analyze(RecordingAnalyzer analyzer, RecordingAnalyzer.Samples data) {
+        try {
+            analyzer.analyze(data);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static void analyzeStreaming(RecordingAnalyzer analyzer, Path file) {
+        try {
+            analyzer.processWavFileStreaming(file.toFile());
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    static List<Path> collectWavFiles(List<String> paths) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String path : paths) {
+            Path p = Paths.get(path);
+            if (Files.isDirectory(p)) {
+                try (Stream<Path> walk = Files.walk(p)) {
+                    files.addAll(walk.filter(Files::isRegularFile)
+                            .filter(f -> f.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".wav"))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                files.add(p);
+            }
+        }
+        return files;
+    }
+
+    // Writes one row per recording as soon as it finishes; rows may arrive in any order.
+    public static class ResultWriter implements Closeable {
+        private final PrintWriter out;
+        private final boolean json;
+
+        public ResultWriter(Writer out, boolean json) {
+            this.out = new PrintWriter(new BufferedWriter(out));
+            this.json = json;
+            if (!json) {
+                this.out.println("file,duration_s,peaks,bpm,fft_bpm,fft_confidence,sdnn_ms,rmssd_ms,pnn50_pct,error");
+            }
+        }
+
+        public synchronized void write(Path file, RecordingAnalyzer analyzer) {
+            double duration = analyzer.getSampleCount() / (double) RecordingAnalyzer.SAMPLE_RATE;
+            int peaks = analyzer.getPeakIndices().size();
+            if (json) {
+                out.printf(Locale.ROOT, "{\"file\":%s,\"duration_s\":%.3f,\"peaks\":%d,\"bpm\":%.2f,\"fft_bpm\":%.2f,\"fft_confidence\":%.3f,\"sdnn_ms\":%.2f,\"rmssd_ms\":%.2f,\"pnn50_pct\":%.2f}%n",
+                        jsonString(file.toString()), duration, peaks, analyzer.getBpm(), analyzer.getFftBpm(), analyzer.getFftConfidence(), analyzer.getSdnn(), analyzer.getRmssd(), analyzer.getPnn50());
+            } else {
+                out.printf(Locale.ROOT, "%s,%.3f,%d,%.2f,%.2f,%.3f,%.2f,%.2f,%.2f,%n",
+                        csvString(file.toString()), duration, peaks, analyzer.getBpm(), analyzer.getFftBpm(), analyzer.getFftConfidence(), analyzer.getSdnn(), analyzer.getRmssd(), analyzer.getPnn50());
+            }
+            out.flush();
+        }
+
+        public synchronized void writeError(Path file, Throwable error) {
+            String message = String.valueOf(error.getMessage());
+            if (json) {
+                out.printf("{\"file\":%s,\"error\":%s}%n", jsonString(file.toString()), jsonString(message));
+            } else {
+                out.printf("%s,,,,,,,,,%s%n", csvString(file.toString()), csvString(message));
+            }
+            out.flush();
+        }
+
+        private static String csvString(String s) {
+            if (s.contains(",") || s.contains("\"") || s.contains("\n")) {
+                return "\"" + s.replace("\"", "\"\"") + "\"";
+            }
+            return s;
+        }
+
+        private static String jsonString(String s) {
+            StringBuilder sb = new StringBuilder("\"");
+            for (char c : s.toCharArray()) {
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            return sb.append('"').toString();
+        }
+
+        @Override
+        public void close() {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int cpuThreads = cores;
+        int ioThreads = Math.max(2, cores);
+        boolean json = false;
+        boolean adaptive = false;
+        boolean bandPass = false;
+        RecordingAnalyzer.Storage storage = RecordingAnalyzer.Storage.fromProperty();
+        String outFile = null;
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--format": json = "json".equalsIgnoreCase(args[++i]); break;
+                case "--out": outFile = args[++i]; break;
+                case "--threads": cpuThreads = Integer.parseInt(args[++i]); break;
+                case "--io-threads": ioThreads = Integer.parseInt(args[++i]); break;
+                case "--adaptive": adaptive = true; break;
+                case "--band-pass": bandPass = true; break;
+                case "--samples": storage = RecordingAnalyzer.Storage.parse(args[++i]); break;
+                default: paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty()) {
+            System.err.println("usage: java HeartbeatBatch [--format csv|json] [--out FILE] [--threads N] [--io-threads N] [--adaptive] [--band-pass] [--samples double|float|short] PATH...");
+            System.exit(2);
+        }
+
+        Writer out = outFile != null
+                ? new OutputStreamWriter(new FileOutputStream(outFile), StandardCharsets.UTF_8)
+                : new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        try (ResultWriter writer = new ResultWriter(out, json)) {
+            new HeartbeatBatch(cpuThreads, ioThreads, adaptive, bandPass, storage, writer).run(collectWavFiles(paths));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongSupplier;
+
+// The benchmark workloads for the decode, threshold, detection, live-analysis and render hot paths,
+// each one full pass of a real entry point over a synthetic heartbeat signal of the given length.
+// The JMH module in jmh/ times them in forked JVMs (see its pom for how to run it); they live here
+// because a JMH benchmark cannot import from this package-less tree.
+public class HeartbeatBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final double THRESHOLD_MULTIPLIER = 2.5;
+    private static final int MIN_PEAK_DISTANCE = 7500;
+    private static final int LIVE_BLOCK = 1024;
+    private static final int RENDER_WIDTH = 1600;
+    private static final int RENDER_HEIGHT = 600;
+    private static final int LIVE_FRAME = SAMPLE_RATE / 10; // Audio per 100 ms display tick
+    private static final double LIVE_HISTORY_S = 10;
+
+    private static volatile double sink; // keeps results alive so the JIT cannot drop the work
+
+    interface Body {
+        long run() throws Exception; // returns the number of samples processed
+    }
+
+    // The workloads by name, each returning the samples it processed; the JMH module looks this up
+    // reflectively once per trial.
+    public static Map<String, LongSupplier> workloads(double seconds) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        Map<String, LongSupplier> workloads = new LinkedHashMap<>();
+        cases(seconds).forEach((name, body) -> workloads.put(name, () -> {
+            try {
+                return body.run();
+            } catch (Exception e) {
+                throw new IllegalStateException(name, e);
+            }
+        }));
+        return workloads;
+    }
+
+    private static Map<String, Body> cases(double seconds) throws Exception {
+        double[] data = SyntheticHeartbeat.generate(SAMPLE_RATE, seconds, 72, 42);
+        byte[] pcm = SyntheticHeartbeat.toPcm16(data);
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        File wav = File.createTempFile("heartbeat-bench", ".wav");
+        wav.deleteOnExit();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), format, data.length), AudioFileFormat.Type.WAVE, wav);
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        double threshold = ParallelPeakDetector.calculateThreshold(pool, data, THRESHOLD_MULTIPLIER);
+        BufferedImage image = new BufferedImage(RENDER_WIDTH, RENDER_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        float[] floats = new float[data.length];
+        short[] shorts = new short[data.length];
+        for (int i = 0; i < data.length; i++) {
+            floats[i] = (float) data[i];
+            shorts[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(data[i])));
+        }
+
+        // The file view as Choose File leaves it, whole recording in the panel
+        RealTimeHeartbeatGrapher grapher = new RealTimeHeartbeatGrapher(null);
+        grapher.setSize(RENDER_WIDTH, RENDER_HEIGHT);
+        grapher.doLayout();
+        RecordingAnalyzer shown = new RecordingAnalyzer(false, false, true, pool);
+        shown.analyze(data);
+        grapher.showAnalysis(shown, null);
+        LivePipeline livePipeline = new LivePipeline("benchmark", LivePipeline.DEFAULT_FORMAT, false, new PipelineMetrics(), AnalysisScheduler.shared());
+
+        Map<String, Body> cases = new LinkedHashMap<>();
+        cases.put("decode.pcm", () -> {
+            PcmDecoder decoder = new PcmDecoder(format);
+            double[] chunk = new double[WavChunkReader.CHUNK_FRAMES];
+            int chunkBytes = chunk.length * 2;
+            long frames = 0;
+            for (int off = 0; off < pcm.length; off += chunkBytes) {
+                frames += decoder.decode(pcm, off, Math.min(chunkBytes, pcm.length - off), chunk, 0);
+            }
+            sink = chunk[0];
+            return frames;
+        });
+        cases.put("decode.wavFile", () -> {
+            double[] loaded = RecordingAnalyzer.load(wav);
+            sink = loaded[0];
+            return loaded.length;
+        });
+        cases.put("threshold.parallel", () -> {
+            sink = ParallelPeakDetector.calculateThreshold(pool, data, THRESHOLD_MULTIPLIER);
+            return data.length;
+        });
+        cases.put("threshold.float", () -> {
+            sink = ParallelPeakDetector.calculateThreshold(pool, floats, THRESHOLD_MULTIPLIER);
+            return data.length;
+        });
+        cases.put("threshold.short", () -> {
+            sink = ParallelPeakDetector.calculateThreshold(pool, shorts, THRESHOLD_MULTIPLIER);
+            return data.length;
+        });
+        cases.put("detect.fromFile", () -> {
+            RecordingAnalyzer analyzer = new RecordingAnalyzer(false, false, false, pool);
+            sink = analyzer.detectPeaks(data).size();
+            return data.length;
+        });
+        cases.put("detect.parallel", () -> {
+            sink = ParallelPeakDetector.detectPeaks(pool, data, threshold, MIN_PEAK_DISTANCE).size();
+            return data.length;
+        });
+        cases.put("detect.float", () -> {
+            sink = ParallelPeakDetector.detectPeaks(pool, floats, threshold, MIN_PEAK_DISTANCE).size();
+            return data.length;
+        });
+        cases.put("detect.short", () -> {
+            sink = ParallelPeakDetector.detectPeaks(pool, shorts, threshold, MIN_PEAK_DISTANCE).size();
+            return data.length;
+        });
+        cases.put("detect.adaptive", () -> {
+            RecordingAnalyzer analyzer = new RecordingAnalyzer(true, false, false, pool);
+            sink = analyzer.detectPeaks(data).size();
+            return data.length;
+        });
+        cases.put("dsp.envelope", () -> {
+            HeartSoundEnvelope envelope = new HeartSoundEnvelope(SAMPLE_RATE);
+            double[] out = new double[envelope.maxOutput(WavChunkReader.CHUNK_FRAMES)];
+            for (int off = 0; off < data.length; off += WavChunkReader.CHUNK_FRAMES) {
+                envelope.process(data, off, Math.min(WavChunkReader.CHUNK_FRAMES, data.length - off), out, 0);
+            }
+            sink = out[0];
+            return data.length;
+        });
+        cases.put("bpm.fft", () -> {
+            FftBpmEstimator estimator = new FftBpmEstimator(SAMPLE_RATE, 1);
+            for (int off = 0; off < data.length; off += LIVE_BLOCK / 2) {
+                estimator.add(data, off, Math.min(LIVE_BLOCK / 2, data.length - off));
+            }
+            sink = estimator.getBpm();
+            return data.length;
+        });
+        cases.put("analyze.file", () -> {
+            RecordingAnalyzer analyzer = new RecordingAnalyzer(false, false, false, pool);
+            analyzer.analyze(data);
+            sink = analyzer.getBpm();
+            return data.length;
+        });
+        cases.put("analyze.float", () -> {
+            RecordingAnalyzer analyzer = new RecordingAnalyzer(false, false, false, pool);
+            analyzer.analyze(floats);
+            sink = analyzer.getBpm();
+            return data.length;
+        });
+        cases.put("analyze.short", () -> {
+            RecordingAnalyzer analyzer = new RecordingAnalyzer(false, false, false, pool);
+            analyzer.analyze(shorts);
+            sink = analyzer.getBpm();
+            return data.length;
+        });
+        cases.put("live.analyzeBlock", () -> {
+            LivePipeline pipeline = new LivePipeline(false);
+            for (int off = 0; off + LIVE_BLOCK <= pcm.length; off += LIVE_BLOCK) {
+                pipeline.analyzeBlock(pcm, off, LIVE_BLOCK, off / 2);
+            }
+            sink = pipeline.getBpm();
+            return pcm.length / 2;
+        });
+        cases.put("render.file", () -> {
+            Graphics2D g = image.createGraphics();
+            grapher.paintGraph(g);
+            g.dispose();
+            return data.length;
+        });
+        cases.put("render.live", () -> {
+            // One strip-chart frame per display tick, each after a tick's worth of new audio
+            LiveMonitor monitor = new LiveMonitor(livePipeline, LIVE_HISTORY_S);
+            Graphics2D g = image.createGraphics();
+            for (int off = 0; off < data.length; off += LIVE_FRAME) {
+                livePipeline.getColumns().add(data, off, Math.min(LIVE_FRAME, data.length - off));
+                monitor.update(RENDER_WIDTH, RENDER_HEIGHT);
+                monitor.paint(g, RENDER_WIDTH, RENDER_HEIGHT);
+            }
+            g.dispose();
+            return data.length;
+        });
+        return cases;
+    }
+}
@@ -0,0 +1,165 @@
+// Heart rate variability from the RR intervals between successive beats, updated per beat.
+// Running sums of RR, RR^2 and squared successive differences are kept over a trailing time window,
+// so SDNN, RMSSD and pNN50 cost O(1) per beat instead of a pass over the whole history.
+// Beat times may be in any integer unit (sample index, milliseconds); the sums stay exact in longs.
+public class HrvEngine {
+
+    public static final double MIN_RR_S = 0.25; // 240 BPM; shorter intervals are double detections
+    public static final double MAX_RR_S = 2.0; // 30 BPM; longer intervals are missed beats
+    private static final double NN50_S = 0.05;
+
+    private final long unitsPerSecond;
+    private final long window; // 0 keeps every interval
+    private final long minRr;
+    private final long maxRr;
+    private final long nn50;
+
+    // Retained intervals as a ring: end time, length, and difference from the previous interval
+    private long[] ends = new long[64];
+    private long[] rrs = new long[64];
+    private long[] diffs = new long[64];
+    private boolean[] hasDiff = new boolean[64];
+    private int head = 0;
+    private int count = 0;
+
+    private long lastBeat = -1;
+    private long lastRr = -1; // -1 when the previous interval was rejected
+    private long sumRr = 0;
+    private long sumRrSquared = 0;
+    private long sumDiffSquared = 0;
+    private int diffCount = 0;
+    private int nn50Count = 0;
+
+    public HrvEngine(long unitsPerSecond, double windowSeconds) {
+        this.unitsPerSecond = unitsPerSecond;
+        this.window = (long) (windowSeconds * unitsPerSecond);
+        this.minRr = (long) (MIN_RR_S * unitsPerSecond);
+        this.maxRr = (long) (MAX_RR_S * unitsPerSecond);
+        this.nn50 = (long) (NN50_S * unitsPerSecond);
+    }
+
+    public void addBeat(long time) {
+        if (lastBeat >= 0) {
+            long rr = time - lastBeat;
+            if (rr >= minRr && rr <= maxRr) {
+                addInterval(time, rr);
+                lastRr = rr;
+            } else {
+                lastRr = -1; // Successive differences must not span an artifact
+            }
+        }
+        lastBeat = time;
+        if (window > 0) {
+            expireBefore(time - window);
+        }
+    }
+
+    private void addInterval(long end, long rr) {
+        if (count == ends.length) {
+            grow();
+        }
+        int slot = (head + count) % ends.length;
+        ends[slot] = end;
+        rrs[slot] = rr;
+        hasDiff[slot] = lastRr >= 0;
+        diffs[slot] = lastRr >= 0 ? rr - lastRr : 0;
+        count++;
+
+        sumRr += rr;
+        sumRrSquared += rr * rr;
+        if (hasDiff[slot]) {
+            addDiff(diffs[slot], 1);
+        }
+    }
+
+    private void addDiff(long diff, int sign) {
+        sumDiffSquared += sign * diff * diff;
+        diffCount += sign;
+        if (Math.abs(diff) > nn50) {
+            nn50Count += sign;
+        }
+    }
+
+    private void expireBefore(long cutoff) {
+        while (count > 0 && ends[head] - rrs[head] < cutoff) {
+            sumRr -= rrs[head];
+            sumRrSquared -= rrs[head] * rrs[head];
+            if (hasDiff[head]) {
+                addDiff(diffs[head], -1);
+            }
+            head = (head + 1) % ends.length;
+            count--;
+        }
+    }
+
+    private void grow() {
+        int capacity = ends.length * 2;
+        long[] newEnds = new long[capacity];
+        long[] newRrs = new long[capacity];
+        long[] newDiffs = new long[capacity];
+        boolean[] newHasDiff = new boolean[capacity];
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % ends.length;
+            newEnds[i] = ends[slot];
+            newRrs[i] = rrs[slot];
+            newDiffs[i] = diffs[slot];
+            newHasDiff[i] = hasDiff[slot];
+        }
+        ends = newEnds;
+        rrs = newRrs;
+        diffs = newDiffs;
+        hasDiff = newHasDiff;
+        head = 0;
+    }
+
+    // The next beat starts a new sequence, as after a gap in the audio: no interval or successive
+    // difference spans it. Intervals already retained stay in the window.
+    public void breakSequence() {
+        lastBeat = -1;
+        lastRr = -1;
+    }
+
+    public void reset() {
+        head = 0;
+        count = 0;
+        lastBeat = -1;
+        lastRr = -1;
+        sumRr = 0;
+        sumRrSquared = 0;
+        sumDiffSquared = 0;
+        diffCount = 0;
+        nn50Count = 0;
+    }
+
+    public int getIntervalCount() {
+        return count;
+    }
+
+    public double getMeanRr() {
+        return count > 0 ? toMillis((double) sumRr / count) : 0;
+    }
+
+    // Sample standard deviation of the RR intervals, in milliseconds.
+    public double getSdnn() {
+        if (count < 2) {
+            return 0;
+        }
+        double mean = (double) sumRr / count;
+        double variance = (sumRrSquared - mean * sumRr) / (count - 1);
+        return toMillis(Math.sqrt(Math.max(0, variance)));
+    }
+
+    // Root mean square of successive RR differences, in milliseconds.
+    public double getRmssd() {
+        return diffCount > 0 ? toMillis(Math.sqrt((double) sumDiffSquared / diffCount)) : 0;
+    }
+
+    // Percentage of successive differences larger than 50 ms.
+    public double getPnn50() {
+        return diffCount > 0 ? 100.0 * nn50Count / diffCount : 0;
+    }
+
+    private double toMillis(double units) {
+        return units * 1000 / unitsPerSecond;
+    }
+}
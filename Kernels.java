@@ -0,0 +1,29 @@
+// Chooses the SampleKernels implementation once per JVM. VectorKernels lives in vector/ and is only
+// compiled and loaded with --add-modules jdk.incubator.vector; without it, or with
+// -Dheartbeat.kernels=scalar, the scalar loops are used.
+//
+//   javac --add-modules jdk.incubator.vector -d out *.java vector/*.java
+//   java --add-modules jdk.incubator.vector -cp out HeartbeatBatch ...
+public final class Kernels {
+
+    private static final SampleKernels SELECTED = select();
+
+    private Kernels() {
+    }
+
+    public static SampleKernels get() {
+        return SELECTED;
+    }
+
+    private static SampleKernels select() {
+        if ("scalar".equalsIgnoreCase(System.getProperty("heartbeat.kernels"))) {
+            return new ScalarKernels();
+        }
+        try {
+            return (SampleKernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Not compiled in, or the incubator module is not on the module path
+            return new ScalarKernels();
+        }
+    }
+}
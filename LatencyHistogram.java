@@ -0,0 +1,105 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-linear histogram of nanosecond latencies in the style of HdrHistogram: exact below 128 ns,
+// then 64 linear sub-buckets per power of two, so any recorded value is within 1.6% of its bucket.
+// Fixed 16 KB footprint and no allocation when recording. One thread records; any thread may query.
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // per power of two
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2; // values below this get their own bucket
+    private static final int MAX_SHIFT = 30;
+    public static final long MAX_VALUE = (1L << (MAX_SHIFT + SUB_BUCKET_BITS + 1)) - 1; // about 137 s
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR_LIMIT + MAX_SHIFT * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Single writer, so plain read-modify-write with ordered stores is enough.
+    public void record(long nanos) {
+        long value = Math.max(0, Math.min(MAX_VALUE, nanos));
+        int index = indexOf(value);
+        counts.lazySet(index, counts.get(index) + 1);
+        sum.lazySet(sum.get() + value);
+        if (value > max.get()) {
+            max.lazySet(value);
+        }
+        count.lazySet(count.get() + 1);
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    // Highest value that falls into the bucket.
+    private static long valueAt(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+
+    // Smallest bucket value that at least the given percentage of recorded values do not exceed.
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(valueAt(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%-7s n=%d mean=%.3fms p50=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms",
+                name, getCount(), getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(99) / 1e6,
+                getPercentile(99.9) / 1e6, getMax() / 1e6);
+    }
+}
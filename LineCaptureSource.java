@@ -0,0 +1,79 @@
+import javax.sound.sampled.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Captures from a TargetDataLine, either the system default input or a specific mixer.
+public class LineCaptureSource implements CaptureSource {
+
+    private final Mixer.Info mixer; // null for the default input
+    private final AudioFormat format;
+    private TargetDataLine line;
+
+    public LineCaptureSource(Mixer.Info mixer, AudioFormat format) {
+        this.mixer = mixer;
+        this.format = format;
+    }
+
+    // Mixers that can capture in this format.
+    public static List<Mixer.Info> captureMixers(AudioFormat format) {
+        DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
+        List<Mixer.Info> mixers = new ArrayList<>();
+        for (Mixer.Info candidate : AudioSystem.getMixerInfo()) {
+            if (AudioSystem.getMixer(candidate).isLineSupported(info)) {
+                mixers.add(candidate);
+            }
+        }
+        return mixers;
+    }
+
+    @Override
+    public String getName() {
+        return mixer != null ? mixer.getName() : "Default input";
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public boolean isLive() {
+        return true;
+    }
+
+    @Override
+    public void open(int bufferBytes) throws LineUnavailableException {
+        DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
+        try {
+            line = (TargetDataLine) (mixer != null ? AudioSystem.getMixer(mixer).getLine(info) : AudioSystem.getLine(info));
+        } catch (IllegalArgumentException e) {
+            throw new LineUnavailableException(e.getMessage());
+        }
+        line.open(format, bufferBytes);
+        line.start();
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        return line.getLongFramePosition();
+    }
+
+    @Override
+    public int available() {
+        return line.available();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        // A closed line returns 0 rather than blocking; treat that as the end
+        return line.isOpen() ? line.read(buffer, offset, length) : -1;
+    }
+
+    @Override
+    public void close() {
+        if (line != null) {
+            line.stop();
+            line.close();
+        }
+    }
+}
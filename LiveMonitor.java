@@ -0,0 +1,74 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+// One live source in the tiled view: its pipeline, its strip chart and the snapshot last shown.
+// Only used from the event dispatch thread, except stop, which blocks and is called from a stopping thread.
+public class LiveMonitor {
+
+    private final LivePipeline pipeline;
+    private final StripChart stripChart;
+    private LiveSnapshot snapshot = LiveSnapshot.EMPTY;
+    private boolean stopped = false;
+
+    public LiveMonitor(LivePipeline pipeline, double historySeconds) {
+        this.pipeline = pipeline;
+        this.stripChart = new StripChart(pipeline.getSampleRate(), historySeconds, Color.DARK_GRAY, Color.WHITE, 0.4);
+    }
+
+    public LivePipeline getPipeline() {
+        return pipeline;
+    }
+
+    public LiveSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Samples the pipeline's latest snapshot and scrolls the chart to the given tile size.
+    public void update(int width, int height) {
+        snapshot = pipeline.getSnapshot();
+        stripChart.update(pipeline.getColumns(), width, height);
+    }
+
+    public synchronized void stop() {
+        if (!stopped) {
+            stopped = true;
+            pipeline.stop();
+            synchronized (System.out) { // monitors stop side by side; keep each dump in one piece
+                System.out.println(pipeline.getName() + ":");
+                pipeline.dumpLatencies(System.out);
+            }
+        }
+    }
+
+    public void paint(Graphics g, int width, int height) {
+        if (stripChart.getImage() != null) {
+            stripChart.paint(g, width, height);
+        } else {
+            g.setColor(Color.WHITE);
+            WaveformRenderer.drawSamples(g, snapshot.getSamples(), width, height, 0.4);
+        }
+        paintOverlay(g, height);
+        pipeline.recordPaint(snapshot);
+    }
+
+    // The source name and the BPM/HRV text drawn over the chart.
+    public void paintOverlay(Graphics g, int height) {
+        int fontSize = height < 300 ? 14 : 20;
+        int line = fontSize + 10;
+        g.setColor(Color.RED);
+        g.setFont(new Font("Arial", Font.BOLD, fontSize));
+        g.drawString(pipeline.getName() + (pipeline.isEnded() ? " (ended)" : ""), 10, line);
+        g.drawString("BPM: " + (int) snapshot.getBpm() + "   FFT: " + (int) snapshot.getFftBpm()
+                + " (" + (int) (snapshot.getFftConfidence() * 100) + "%)", 10, 2 * line);
+        g.drawString("HRV: SDNN " + (int) snapshot.getSdnn() + " ms, RMSSD " + (int) snapshot.getRmssd()
+                + " ms, pNN50 " + (int) snapshot.getPnn50() + "%", 10, 3 * line);
+        if (snapshot.getDroppedFrames() > 0) {
+            g.drawString("Dropped: " + snapshot.getDroppedFrames() + " frames", 10, 4 * line);
+        }
+    }
+
+    // The strip chart's back buffer; null until the first update.
+    public BufferedImage getImage() {
+        return stripChart.getImage();
+    }
+}
@@ -0,0 +1,522 @@
+import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Live capture from one CaptureSource. The capture thread only reads the source into a lock-free
+// ring and schedules a drain on the shared AnalysisScheduler, which runs every block through
+// decode -> detect -> BPM. Drains of one pipeline never overlap, so the analysis state needs no locks,
+// and a worker is only busy while there is audio to analyse.
+// The UI never sees analysis state directly, only the LiveSnapshot published here.
+// Beat times are on the source's sample clock (frame position of the block plus the offset inside it),
+// not the wall clock of whichever thread happened to notice them.
+// Network streams have no capture thread: their owner pushes bytes in (startPush, push, endPush),
+// and the pushing thread takes the capture thread's place as the ring's only producer.
+public class LivePipeline {
+
+    public static final AudioFormat DEFAULT_FORMAT = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, 16, 1, 2, 44100, false);
+    private static final int BUFFER_FRAMES = 512;
+    private static final int RING_BLOCKS = 256; // about 3 s at 44.1 kHz
+    private static final int DRAIN_BATCH = 16; // blocks per turn on a worker before yielding it to other pipelines
+    private static final double THRESHOLD = 1000.0;
+    private static final long MIN_BEAT_GAP_MS = 400; // Refractory gap, so the second heart sound is not a beat
+    private static final double HRV_WINDOW_S = 300; // Standard short-term HRV span
+    private static final double FFT_HOP_S = 1; // FFT windows overlap by all but this much
+    public static final double MAX_HISTORY_S = 60; // Longest strip-chart history the column ring keeps
+    private static final long SNAPSHOT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+    private static final long BACKPRESSURE_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final CaptureSource source; // null in push mode
+    private final String name;
+    private final AudioFormat format;
+    private final PcmDecoder decoder;
+    private final int sampleRate;
+    private final int bufferSize;
+    private final long bpmWindowFrames;
+    private final SpscBlockRing ring;
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final PipelineMetrics metrics;
+    private final AnalysisScheduler scheduler;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final Runnable drain = this::drain;
+
+    private Thread captureThread;
+    private volatile boolean running = false;
+    private volatile boolean ended = false; // the source has run out
+    private long framesCaptured = 0; // producer-side sample clock
+    private final byte[] discard;
+    private WavRecorder recorder; // set before start, closed on stop
+    private volatile TrendStore trends; // may arrive after the first push; closed on stop
+    private volatile long trendEpochMillis; // wall time of sample-clock frame 0
+    private long nextTrendFrame;
+    private long lastBeatFrame = -1;
+    private String metricsKey; // this pipeline's latencies in metrics while running
+    private volatile LiveSnapshot snapshot = LiveSnapshot.EMPTY;
+
+    // Per-stage latencies. read is the time blocked in source.read, queue the time a block then waits
+    // in the ring, and paint the age of the newest captured block when the UI finishes drawing it.
+    private final LatencyHistogram readLatency = new LatencyHistogram("read");
+    private final LatencyHistogram queueLatency = new LatencyHistogram("queue");
+    private final LatencyHistogram decodeLatency = new LatencyHistogram("decode");
+    private final LatencyHistogram detectLatency = new LatencyHistogram("detect");
+    private final LatencyHistogram bpmLatency = new LatencyHistogram("bpm");
+    private final LatencyHistogram paintLatency = new LatencyHistogram("paint");
+
+    // Analysis state, only touched by the drain currently holding drainScheduled
+    private final double[] audioData;
+    private int audioDataLength = 0;
+    private final SignalStage envelopeStage;
+    private final double[] envelope;
+    private int envelopeLength = 0;
+    private long envelopeStartFrame = 0; // sample-clock frame where the envelope stage last started
+    private long envelopeFrames = 0; // envelope values produced since then
+    private long blockStartFrame = 0;
+    private long nextFrame = 0;
+    private long newestReadNanos = 0;
+    private final ColumnRing columns;
+    private final StreamingPeakDetector detector; // THRESHOLD with the refractory gap, over the detection signal
+    private final PeakStore peakTimes = new PeakStore(); // sample-clock frames
+    private double bpm = 0;
+    private final HrvEngine hrv;
+    private final FftBpmEstimator fftEstimator;
+    private long lastSnapshotNanos = 0;
+
+    public LivePipeline(boolean bandPassFilter) {
+        this(bandPassFilter, new PipelineMetrics());
+    }
+
+    public LivePipeline(boolean bandPassFilter, PipelineMetrics metrics) {
+        this(new LineCaptureSource(null, DEFAULT_FORMAT), bandPassFilter, metrics, AnalysisScheduler.shared());
+    }
+
+    public LivePipeline(CaptureSource source, boolean bandPassFilter, PipelineMetrics metrics, AnalysisScheduler scheduler) {
+        this(source, source.getName(), source.getFormat(), bandPassFilter, metrics, scheduler);
+    }
+
+    // A pipeline fed with push instead of a capture thread.
+    public LivePipeline(String name, AudioFormat format, boolean bandPassFilter, PipelineMetrics metrics, AnalysisScheduler scheduler) {
+        this(null, name, format, bandPassFilter, metrics, scheduler);
+    }
+
+    private LivePipeline(CaptureSource source, String name, AudioFormat format, boolean bandPassFilter,
+                         PipelineMetrics metrics, AnalysisScheduler scheduler) {
+        this.source = source;
+        this.name = name;
+        this.format = format;
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+        decoder = new PcmDecoder(format);
+        sampleRate = Math.round(format.getSampleRate());
+        bufferSize = BUFFER_FRAMES * decoder.getFrameSize();
+        bpmWindowFrames = 60L * sampleRate;
+        ring = new SpscBlockRing(RING_BLOCKS, bufferSize);
+        audioData = new double[BUFFER_FRAMES];
+        columns = new ColumnRing(StripChart.historyColumns(sampleRate, MAX_HISTORY_S));
+        hrv = new HrvEngine(sampleRate, HRV_WINDOW_S);
+        envelopeStage = bandPassFilter ? new HeartSoundEnvelope(sampleRate) : null;
+        envelope = envelopeStage != null ? new double[envelopeStage.maxOutput(audioData.length)] : null;
+        detector = newBeatDetector(sampleRate, envelopeStage != null ? envelopeStage.getDecimation() : 1);
+        fftEstimator = new FftBpmEstimator(envelopeStage != null ? sampleRate / (double) envelopeStage.getDecimation() : sampleRate, FFT_HOP_S);
+        discard = new byte[bufferSize];
+    }
+
+    // The live beat rule for a detection signal at sampleRate / scale: the first sample over THRESHOLD
+    // more than MIN_BEAT_GAP_MS after the previous beat. RecordingAnalyzer.setLiveBeatRule runs it on files.
+    public static StreamingPeakDetector newBeatDetector(int sampleRate, int scale) {
+        long gapFrames = sampleRate * MIN_BEAT_GAP_MS / 1000;
+        return StreamingPeakDetector.refractory(THRESHOLD, (int) (gapFrames / scale + 1));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    // Bytes per captured block.
+    public int getBlockBytes() {
+        return bufferSize;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    // True once the source has run out and everything it delivered has been analysed.
+    public boolean isEnded() {
+        return ended && ring.size() == 0 && !drainScheduled.get();
+    }
+
+    // Also write the captured PCM to a WAV file; call before start.
+    public void recordTo(File file) throws IOException {
+        recorder = new WavRecorder(file, format, bufferSize);
+    }
+
+    public WavRecorder getRecorder() {
+        return recorder;
+    }
+
+    // Also append per-beat RR and per-second BPM/HRV to a trend history in dir, from whenever the
+    // store is open; call before stop. Times are the sample clock from start or startPush.
+    public void trendTo(File dir) throws IOException {
+        trends = new TrendStore(dir);
+    }
+
+    public void start() throws LineUnavailableException, IOException {
+        if (source == null) {
+            throw new IllegalStateException("Push-mode pipeline: " + name);
+        }
+        try {
+            source.open(bufferSize * 16);
+        } catch (LineUnavailableException | IOException e) {
+            source.close();
+            closeRecorder();
+            closeTrends();
+            throw e;
+        }
+
+        metricsKey = metrics.addPipeline(name, getLatencies());
+        trendEpochMillis = System.currentTimeMillis();
+        running = true;
+        captureThread = new Thread(this::captureLoop, "heartbeat-capture-" + name);
+        captureThread.setPriority(Thread.MAX_PRIORITY);
+        captureThread.start();
+    }
+
+    public void startPush() {
+        metricsKey = metrics.addPipeline(name, getLatencies());
+        trendEpochMillis = System.currentTimeMillis();
+        running = true;
+    }
+
+    // Producer side of push mode: moves the whole frames in data into the ring, leaving any partial
+    // frame for the caller to complete. Never blocks; if analysis is a whole ring behind the audio is
+    // dropped and counted, as for a line.
+    public void push(ByteBuffer data) {
+        int frameSize = decoder.getFrameSize();
+        while (running && data.remaining() >= frameSize) {
+            int n = Math.min(bufferSize, data.remaining() / frameSize * frameSize);
+            SpscBlockRing.Block block = ring.claim();
+            if (block == null) {
+                data.get(discard, 0, n);
+                dropped(discard, n);
+                continue;
+            }
+            data.get(block.data, 0, n);
+            publish(block, n, System.nanoTime());
+        }
+    }
+
+    // Producer side of push mode: frames that were lost before reaching the pipeline. The sample clock
+    // moves past them and they count as dropped.
+    public void skip(long frames) {
+        framesCaptured += frames;
+        droppedFrames.addAndGet(frames);
+    }
+
+    // The stream has ended; stop still has to be called to finish the pipeline.
+    public void endPush() {
+        ended = running;
+    }
+
+    public void stop() {
+        running = false;
+        if (source != null) {
+            source.close();
+            try {
+                captureThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Let the last drain finish so the final snapshot covers everything captured
+        while (drainScheduled.get() || ring.size() > 0) {
+            scheduleDrain();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        publishSnapshot();
+        closeRecorder();
+        closeTrends();
+        if (metricsKey != null) {
+            metrics.removePipeline(metricsKey);
+            metricsKey = null;
+        }
+    }
+
+    private void closeTrends() {
+        if (trends != null) {
+            try {
+                trends.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            trends = null; // stop may be called again
+        }
+    }
+
+    private void closeRecorder() {
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            recorder = null;
+        }
+    }
+
+    public LiveSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Min/max columns of everything analysed, for the scrolling display.
+    public ColumnRing getColumns() {
+        return columns;
+    }
+
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    // In pipeline order; safe to query from any thread while running.
+    public LatencyHistogram[] getLatencies() {
+        return new LatencyHistogram[] {readLatency, queueLatency, decodeLatency, detectLatency, bpmLatency, paintLatency};
+    }
+
+    public void dumpLatencies(PrintStream out) {
+        for (LatencyHistogram histogram : getLatencies()) {
+            out.println(histogram);
+        }
+    }
+
+    // Called by the UI once a snapshot has been painted; only the EDT records into this histogram.
+    public void recordPaint(LiveSnapshot painted) {
+        if (painted.getCaptureNanos() != 0) {
+            paintLatency.record(System.nanoTime() - painted.getCaptureNanos());
+        }
+    }
+
+    private void captureLoop() {
+        // The source may already hold frames by the time this thread starts; they are the first ones read
+        framesCaptured = source.getLongFramePosition() - source.available() / decoder.getFrameSize();
+        while (running) {
+            SpscBlockRing.Block block = ring.claim();
+            if (block == null && !source.isLive()) {
+                // Replays wait for analysis rather than lose audio
+                LockSupport.parkNanos(BACKPRESSURE_WAIT_NANOS);
+                continue;
+            }
+            if (block == null) {
+                // Analysis is a whole ring behind: keep draining the source so it does not stall, and count the loss
+                int n = source.read(discard, 0, bufferSize);
+                if (n < 0) {
+                    break;
+                }
+                dropped(discard, n);
+                continue;
+            }
+            long readStart = System.nanoTime();
+            int n = source.read(block.data, 0, bufferSize);
+            readLatency.record(System.nanoTime() - readStart);
+            if (n < 0) {
+                break;
+            }
+            if (n > 0) {
+                publish(block, n, System.nanoTime());
+            }
+        }
+        ended = running;
+    }
+
+    // Producer: hands a filled block to analysis.
+    private void publish(SpscBlockRing.Block block, int length, long readNanos) {
+        metrics.bufferRead();
+        if (recorder != null) {
+            recorder.offer(block.data, 0, length);
+        }
+        block.length = length;
+        block.startFrame = framesCaptured;
+        block.readNanos = readNanos;
+        framesCaptured += length / decoder.getFrameSize();
+        ring.publish();
+        scheduleDrain();
+    }
+
+    // Producer: counts audio that arrived while analysis was a whole ring behind.
+    private void dropped(byte[] data, int length) {
+        if (recorder != null && length > 0) {
+            recorder.offer(data, 0, length); // The recording stays complete even when analysis cannot keep up
+        }
+        int frames = length / decoder.getFrameSize();
+        overruns.incrementAndGet();
+        droppedFrames.addAndGet(frames);
+        metrics.bufferRead();
+        metrics.overrun(frames);
+        framesCaptured += frames;
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            scheduler.execute(drain);
+        }
+    }
+
+    // Runs on a scheduler worker. Handles at most DRAIN_BATCH blocks, then either resubmits itself
+    // behind the other pipelines' drains or gives up the flag.
+    private void drain() {
+        int handled = 0;
+        SpscBlockRing.Block block;
+        while (handled < DRAIN_BATCH && (block = ring.peek()) != null) {
+            queueLatency.record(System.nanoTime() - block.readNanos);
+            newestReadNanos = block.readNanos;
+            analyzeBlock(block.data, 0, block.length, block.startFrame);
+            ring.release();
+            handled++;
+        }
+        if (System.nanoTime() - lastSnapshotNanos >= SNAPSHOT_INTERVAL_NANOS || ring.size() == 0) {
+            publishSnapshot();
+        }
+        if (ring.size() > 0) {
+            scheduler.execute(drain);
+            return;
+        }
+        drainScheduled.set(false);
+        // A block published between the size check and clearing the flag would otherwise wait for the next one
+        if (ring.size() > 0) {
+            scheduleDrain();
+        }
+    }
+
+    // One analysis step for a block of captured bytes; also driven directly by the benchmarks.
+    void analyzeBlock(byte[] data, int offset, int length, long startFrame) {
+        long t0 = System.nanoTime();
+        processAudioData(data, offset, length, startFrame);
+        long t1 = System.nanoTime();
+        detectPeaks();
+        long t2 = System.nanoTime();
+        calculateBPM();
+        long t3 = System.nanoTime();
+        decodeLatency.record(t1 - t0);
+        detectLatency.record(t2 - t1);
+        bpmLatency.record(t3 - t2);
+    }
+
+    double getBpm() {
+        return bpm;
+    }
+
+    private void publishSnapshot() {
+        double[] samples = new double[audioDataLength];
+        System.arraycopy(audioData, 0, samples, 0, audioDataLength);
+        snapshot = new LiveSnapshot(samples, bpm, hrv.getSdnn(), hrv.getRmssd(), hrv.getPnn50(),
+                fftEstimator.getBpm(), fftEstimator.getConfidence(), overruns.get(), droppedFrames.get(), newestReadNanos);
+        lastSnapshotNanos = System.nanoTime();
+    }
+
+    private void processAudioData(byte[] data, int offset, int length, long startFrame) {
+        audioDataLength = decoder.decode(data, offset, length, audioData, 0);
+        blockStartFrame = startFrame;
+        columns.add(audioData, 0, audioDataLength);
+        if (startFrame != nextFrame) {
+            // Frames were dropped: no filter history, peak comparison or RR interval may span the gap
+            fftEstimator.reset(); // Its envelope history would no longer be evenly spaced
+            detector.reset();
+            hrv.breakSequence();
+            lastBeatFrame = -1;
+            if (envelopeStage != null) {
+                envelopeStage.reset();
+                envelopeStartFrame = startFrame;
+                envelopeFrames = 0;
+            }
+        }
+        if (envelopeStage != null) {
+            envelopeLength = envelopeStage.process(audioData, 0, audioDataLength, envelope, 0);
+        }
+        nextFrame = startFrame + audioDataLength;
+        metrics.samplesProcessed(audioDataLength);
+    }
+
+    // Sample-clock frame of index i in this block's detection signal.
+    private long frameAt(int i) {
+        if (envelopeStage == null) {
+            return blockStartFrame + i;
+        }
+        long e = envelopeFrames + i;
+        return envelopeStartFrame + Math.max(0, (e + 1) * envelopeStage.getDecimation() - 1 - envelopeStage.getDelay());
+    }
+
+    private void detectPeaks() {
+        // With the band-pass stage enabled, detection looks at the short envelope instead of raw PCM
+        double[] signal = envelopeStage != null ? envelope : audioData;
+        int signalLength = envelopeStage != null ? envelopeLength : audioDataLength;
+        long blockStart = detector.getSampleCount();
+        detector.accept(signal, 0, signalLength);
+        PeakStore found = detector.getPeakIndices(); // only this block's, it is emptied each time
+        for (int k = 0; k < found.size(); k++) {
+            long frame = frameAt((int) (found.get(k) - blockStart));
+            peakTimes.add(frame);
+            hrv.addBeat(frame);
+            metrics.peakDetected();
+            trendBeat(frame);
+        }
+        found.clear();
+        if (envelopeStage != null) {
+            envelopeFrames += envelopeLength;
+        }
+    }
+
+    // RR intervals in the range HRV accepts; the store never blocks this thread.
+    private void trendBeat(long frame) {
+        TrendStore store = trends;
+        if (store == null) {
+            return;
+        }
+        if (lastBeatFrame >= 0) {
+            double rrMs = (frame - lastBeatFrame) * 1000.0 / sampleRate;
+            if (rrMs >= HrvEngine.MIN_RR_S * 1000 && rrMs <= HrvEngine.MAX_RR_S * 1000) {
+                store.offer(TrendStore.Metric.RR, trendMillis(frame), rrMs);
+            }
+        }
+        lastBeatFrame = frame;
+    }
+
+    private long trendMillis(long frame) {
+        return trendEpochMillis + frame * 1000 / sampleRate;
+    }
+
+    private void calculateBPM() {
+        // Remove peaks older than 60 seconds of captured audio
+        peakTimes.expireBefore(nextFrame - bpmWindowFrames);
+
+        // 0 if there are no recent peaks
+        bpm = peakTimes.bpm(bpmWindowFrames, 60L * sampleRate);
+        TrendStore store = trends;
+        if (store != null && nextFrame >= nextTrendFrame) {
+            long time = trendMillis(nextFrame);
+            store.offer(TrendStore.Metric.BPM, time, bpm);
+            store.offer(TrendStore.Metric.SDNN, time, hrv.getSdnn());
+            store.offer(TrendStore.Metric.RMSSD, time, hrv.getRmssd());
+            store.offer(TrendStore.Metric.PNN50, time, hrv.getPnn50());
+            nextTrendFrame = (nextFrame / sampleRate + 1) * sampleRate; // once per second, skipping gaps
+        }
+
+        // Periodicity of the same signal, which does not depend on the threshold
+        if (envelopeStage != null) {
+            fftEstimator.add(envelope, 0, envelopeLength);
+        } else {
+            fftEstimator.add(audioData, 0, audioDataLength);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless run of the live path: replays recordings through LivePipeline, the same
+// capture -> decode -> detect -> BPM path a microphone drives, and compares the result with
+// file-mode analysis of the same recording. Prints one CSV row per recording.
+// The file-mode side detects beats with the live pipeline's rule (RecordingAnalyzer.setLiveBeatRule),
+// so the two find the same beats and any difference comes from the live path itself.
+// Live BPM only covers the trailing minute, so the file-mode BPM next to it uses the same window.
+// With --parallel every recording is a separate source on the shared analysis workers at once.
+// With --tolerance the exit status is 1 if any recording's BPMs differ by more than that.
+//
+// usage: java LiveReplay [--speed X|max] [--parallel] [--band-pass] [--latencies] [--tolerance BPM] PATH...
+public class LiveReplay {
+
+    private static final class Run {
+        final Path file;
+        LivePipeline pipeline;
+        long startNanos;
+        long elapsedNanos;
+        Exception error;
+
+        Run(Path file) {
+            this.file = file;
+        }
+    }
+
+    private final double speed;
+    private final boolean bandPassFilter;
+    private final boolean printLatencies;
+    private final double tolerance;
+    private boolean mismatch = false;
+
+    public LiveReplay(double speed, boolean bandPassFilter, boolean printLatencies, double tolerance) {
+        this.speed = speed;
+        this.bandPassFilter = bandPassFilter;
+        this.printLatencies = printLatencies;
+        this.tolerance = tolerance;
+    }
+
+    // Returns false if any recording failed or its BPMs differ by more than the tolerance.
+    public boolean run(List<Path> files, boolean parallel) {
+        System.out.println("file,duration_s,speed,elapsed_s,realtime_factor,live_bpm,file_bpm,bpm_diff,live_fft_bpm,file_fft_bpm,live_sdnn_ms,file_sdnn_ms,dropped_frames,error");
+        List<Run> runs = new ArrayList<>();
+        for (Path file : files) {
+            Run run = new Run(file);
+            runs.add(run);
+            start(run);
+            if (!parallel) {
+                finish(run);
+            }
+        }
+        if (parallel) {
+            for (Run run : runs) {
+                finish(run);
+            }
+        }
+        return !mismatch;
+    }
+
+    private void start(Run run) {
+        try {
+            ReplayCaptureSource source = new ReplayCaptureSource(run.file.toFile(), speed);
+            run.pipeline = new LivePipeline(source, bandPassFilter, new PipelineMetrics(), AnalysisScheduler.shared());
+            run.startNanos = System.nanoTime();
+            run.pipeline.start();
+        } catch (IOException | LineUnavailableException | IllegalArgumentException e) {
+            run.error = e;
+        }
+    }
+
+    private void finish(Run run) {
+        if (run.error == null) {
+            while (!run.pipeline.isEnded()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            run.elapsedNanos = System.nanoTime() - run.startNanos;
+            run.pipeline.stop();
+        }
+        report(run);
+    }
+
+    private void report(Run run) {
+        if (run.error != null) {
+            System.out.printf("%s,,,,,,,,,,,,,%s%n", run.file, run.error.getMessage());
+            mismatch = true;
+            return;
+        }
+        RecordingAnalyzer analyzer = new RecordingAnalyzer(false, bandPassFilter, false, ForkJoinPool.commonPool());
+        analyzer.setLiveBeatRule(true);
+        try {
+            analyzer.processWavFile(run.file.toFile());
+        } catch (UnsupportedAudioFileException | IOException e) {
+            System.out.printf("%s,,,,,,,,,,,,,%s%n", run.file, e.getMessage());
+            mismatch = true;
+            return;
+        }
+        LiveSnapshot live = run.pipeline.getSnapshot();
+        int sampleRate = run.pipeline.getSampleRate();
+        double duration = analyzer.getSampleCount() / (double) sampleRate;
+        double elapsed = run.elapsedNanos / 1e9;
+        // BPM over the last minute of peaks, as the live pipeline reports it at the end of the stream
+        long minute = 60L * sampleRate;
+        PeakStore peaks = analyzer.getPeakIndices();
+        peaks.expireBefore(analyzer.getSampleCount() - minute);
+        double fileBpm = peaks.bpm(minute, minute);
+        System.out.printf(Locale.ROOT, "%s,%.3f,%s,%.3f,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%d,%n",
+                run.file, duration, speed == ReplayCaptureSource.MAX_SPEED ? "max" : String.valueOf(speed), elapsed,
+                duration / elapsed, live.getBpm(), fileBpm, live.getBpm() - fileBpm, live.getFftBpm(), analyzer.getFftBpm(), live.getSdnn(), analyzer.getSdnn(),
+                live.getDroppedFrames());
+        if (Math.abs(live.getBpm() - fileBpm) > tolerance) {
+            mismatch = true;
+        }
+        if (printLatencies) {
+            System.err.println(run.file + ":");
+            run.pipeline.dumpLatencies(System.err);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        double speed = 1;
+        boolean parallel = false;
+        boolean bandPass = false;
+        boolean latencies = false;
+        double tolerance = Double.POSITIVE_INFINITY;
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--speed":
+                    String value = args[++i];
+                    speed = "max".equalsIgnoreCase(value) ? ReplayCaptureSource.MAX_SPEED : Double.parseDouble(value);
+                    break;
+                case "--parallel": parallel = true; break;
+                case "--band-pass": bandPass = true; break;
+                case "--latencies": latencies = true; break;
+                case "--tolerance": tolerance = Double.parseDouble(args[++i]); break;
+                default: paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty()) {
+            System.err.println("usage: java LiveReplay [--speed X|max] [--parallel] [--band-pass] [--latencies] [--tolerance BPM] PATH...");
+            System.exit(2);
+        }
+        boolean passed = new LiveReplay(speed, bandPass, latencies, tolerance).run(HeartbeatBatch.collectWavFiles(paths), parallel);
+        System.exit(passed ? 0 : 1);
+    }
+}
@@ -0,0 +1,73 @@
+// Immutable view of the live pipeline handed to the UI; the painter never touches analysis state.
+public final class LiveSnapshot {
+
+    public static final LiveSnapshot EMPTY = new LiveSnapshot(new double[0], 0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+    private final double[] samples;
+    private final double bpm;
+    private final double sdnn;
+    private final double rmssd;
+    private final double pnn50;
+    private final double fftBpm;
+    private final double fftConfidence;
+    private final long overruns;
+    private final long droppedFrames;
+    private final long captureNanos;
+
+    public LiveSnapshot(double[] samples, double bpm, double sdnn, double rmssd, double pnn50, double fftBpm, double fftConfidence,
+                        long overruns, long droppedFrames, long captureNanos) {
+        this.samples = samples;
+        this.bpm = bpm;
+        this.sdnn = sdnn;
+        this.rmssd = rmssd;
+        this.pnn50 = pnn50;
+        this.fftBpm = fftBpm;
+        this.fftConfidence = fftConfidence;
+        this.overruns = overruns;
+        this.droppedFrames = droppedFrames;
+        this.captureNanos = captureNanos;
+    }
+
+    // Owned by the snapshot; callers must not modify it.
+    public double[] getSamples() {
+        return samples;
+    }
+
+    public double getBpm() {
+        return bpm;
+    }
+
+    public double getSdnn() {
+        return sdnn;
+    }
+
+    public double getRmssd() {
+        return rmssd;
+    }
+
+    public double getPnn50() {
+        return pnn50;
+    }
+
+    // Periodicity estimate over the last FftBpmEstimator.WINDOW, alongside the peak-counted BPM.
+    public double getFftBpm() {
+        return fftBpm;
+    }
+
+    public double getFftConfidence() {
+        return fftConfidence;
+    }
+
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    // System.nanoTime() at which the newest block in this snapshot was read from the line, 0 if none.
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+}
@@ -0,0 +1,139 @@
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// Random access to the samples of a PCM WAV file through memory mappings of its data chunk.
+// Nothing is read until a range is asked for, and then only that range, so a viewport over a
+// multi-hour recording costs the same as over a short one. The data chunk is mapped in segments
+// because a single mapping is limited to 2 GB.
+public class MappedWav implements Closeable {
+
+    private static final int SEGMENT_BYTES = 1 << 30;
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final FileChannel channel;
+    private final AudioFormat format;
+    private final PcmDecoder decoder;
+    private final int frameSize;
+    private final long frameCount;
+    private final MappedByteBuffer[] segments;
+    private final long segmentBytes; // whole frames per segment
+    private byte[] scratch = new byte[0];
+
+    public MappedWav(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer riff = read(0, 12);
+            if (riff.getInt() != 0x46464952 || riff.getInt(8) != 0x45564157) { // "RIFF", "WAVE"
+                throw new IOException("Not a WAV file: " + file);
+            }
+
+            AudioFormat fmt = null;
+            long dataOffset = -1;
+            long dataBytes = 0;
+            long position = 12;
+            while (position + 8 <= channel.size() && dataOffset < 0) {
+                ByteBuffer chunk = read(position, 8);
+                int id = chunk.getInt();
+                long size = chunk.getInt() & 0xFFFFFFFFL;
+                if (id == 0x20746d66) { // "fmt "
+                    fmt = parseFormat(read(position + 8, (int) Math.min(size, 40)));
+                } else if (id == 0x61746164) { // "data"
+                    dataOffset = position + 8;
+                    // Unfinished recordings leave the size at 0 or past the end; use what is there
+                    long available = channel.size() - dataOffset;
+                    dataBytes = size == 0 || size > available ? available : size;
+                }
+                position += 8 + size + (size & 1);
+            }
+            if (fmt == null || dataOffset < 0) {
+                throw new IOException("Missing fmt or data chunk: " + file);
+            }
+
+            format = fmt;
+            decoder = new PcmDecoder(format);
+            frameSize = decoder.getFrameSize();
+            frameCount = dataBytes / frameSize;
+            segmentBytes = (long) (SEGMENT_BYTES / frameSize) * frameSize;
+            long usedBytes = frameCount * frameSize;
+            segments = new MappedByteBuffer[(int) ((usedBytes + segmentBytes - 1) / segmentBytes)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * segmentBytes;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + start, Math.min(segmentBytes, usedBytes - start));
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+            // keep reading
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static AudioFormat parseFormat(ByteBuffer fmt) throws IOException {
+        int tag = fmt.getShort() & 0xFFFF;
+        int channels = fmt.getShort() & 0xFFFF;
+        int sampleRate = fmt.getInt();
+        fmt.getInt(); // byte rate
+        int blockAlign = fmt.getShort() & 0xFFFF;
+        int bits = fmt.getShort() & 0xFFFF;
+        if (tag == FORMAT_EXTENSIBLE && fmt.remaining() >= 10) {
+            fmt.position(fmt.position() + 8); // cbSize, valid bits, channel mask
+            tag = fmt.getShort() & 0xFFFF; // first two bytes of the sub-format GUID
+        }
+        if (tag != FORMAT_PCM) {
+            throw new IOException("Only PCM WAV files can be mapped, format tag " + tag);
+        }
+        AudioFormat.Encoding encoding = bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+        return new AudioFormat(encoding, sampleRate, bits, channels, blockAlign, sampleRate, false);
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    // Decodes frames [startFrame, startFrame + frames) to mono doubles; returns the number decoded.
+    // Synchronized for the shared scratch buffer: an export may read while the viewport paints.
+    public synchronized int read(long startFrame, int frames, double[] dst) {
+        long first = Math.max(0, startFrame);
+        int count = (int) Math.max(0, Math.min(frames, frameCount - first));
+        int bytes = count * frameSize;
+        if (scratch.length < bytes) {
+            scratch = new byte[bytes];
+        }
+        long position = first * frameSize;
+        int copied = 0;
+        while (copied < bytes) {
+            int segment = (int) (position / segmentBytes);
+            int offset = (int) (position % segmentBytes);
+            int n = Math.min(bytes - copied, segments[segment].limit() - offset);
+            segments[segment].get(offset, scratch, copied, n);
+            copied += n;
+            position += n;
+        }
+        return decoder.decode(scratch, 0, bytes, dst, 0);
+    }
+
+    // The mappings stay readable after the channel is closed.
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,195 @@
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Min/max decimation pyramid built once per recording. Level 0 holds one min/max pair per
+// BASE_BUCKET samples and every level above halves the previous one, so a renderer can always
+// find a level with roughly one bucket per pixel column.
+// Levels are FloatBuffers so a pyramid can also sit directly on a memory-mapped cache file.
+public class MinMaxPyramid {
+
+    public static final int BASE_BUCKET = 128;
+
+    private final List<FloatBuffer> mins = new ArrayList<>();
+    private final List<FloatBuffer> maxs = new ArrayList<>();
+
+    // Level 0 while it is still being filled
+    private float[] baseMin = new float[1024];
+    private float[] baseMax = new float[1024];
+    private int baseSize = 0;
+    private float bucketMin = Float.POSITIVE_INFINITY;
+    private float bucketMax = Float.NEGATIVE_INFINITY;
+    private long sampleCount = 0;
+    private boolean finished = false;
+
+    public static MinMaxPyramid build(double[] data) {
+        MinMaxPyramid pyramid = new MinMaxPyramid();
+        pyramid.add(data, 0, data.length);
+        pyramid.finish();
+        return pyramid;
+    }
+
+    public static MinMaxPyramid build(float[] data) {
+        MinMaxPyramid pyramid = new MinMaxPyramid();
+        pyramid.add(data, 0, data.length);
+        pyramid.finish();
+        return pyramid;
+    }
+
+    public static MinMaxPyramid build(short[] data) {
+        MinMaxPyramid pyramid = new MinMaxPyramid();
+        pyramid.add(data, 0, data.length);
+        pyramid.finish();
+        return pyramid;
+    }
+
+    // A finished pyramid over existing level buffers, e.g. views of a mapped file.
+    public static MinMaxPyramid wrap(long sampleCount, FloatBuffer[] levelMins, FloatBuffer[] levelMaxs) {
+        MinMaxPyramid pyramid = new MinMaxPyramid();
+        for (int level = 0; level < levelMins.length; level++) {
+            pyramid.mins.add(levelMins[level]);
+            pyramid.maxs.add(levelMaxs[level]);
+        }
+        pyramid.sampleCount = sampleCount;
+        pyramid.baseMin = null;
+        pyramid.baseMax = null;
+        pyramid.finished = true;
+        return pyramid;
+    }
+
+    public void add(double[] samples, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            addSample((float) samples[i]);
+        }
+    }
+
+    public void add(float[] samples, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            addSample(samples[i]);
+        }
+    }
+
+    public void add(short[] samples, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            addSample(samples[i]);
+        }
+    }
+
+    private void addSample(float v) {
+        if (v < bucketMin) bucketMin = v;
+        if (v > bucketMax) bucketMax = v;
+        sampleCount++;
+        if (sampleCount % BASE_BUCKET == 0) {
+            closeBucket();
+        }
+    }
+
+    private void closeBucket() {
+        if (baseSize == baseMin.length) {
+            baseMin = Arrays.copyOf(baseMin, baseSize * 2);
+            baseMax = Arrays.copyOf(baseMax, baseSize * 2);
+        }
+        baseMin[baseSize] = bucketMin;
+        baseMax[baseSize] = bucketMax;
+        baseSize++;
+        bucketMin = Float.POSITIVE_INFINITY;
+        bucketMax = Float.NEGATIVE_INFINITY;
+    }
+
+    // Closes the last partial bucket and builds the upper levels.
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        if (sampleCount % BASE_BUCKET != 0) {
+            closeBucket();
+        }
+        float[] min = Arrays.copyOf(baseMin, baseSize);
+        float[] max = Arrays.copyOf(baseMax, baseSize);
+        baseMin = null;
+        baseMax = null;
+        addLevel(min, max, baseSize);
+
+        while (min.length > 1) {
+            int size = (min.length + 1) / 2;
+            float[] upperMin = new float[size];
+            float[] upperMax = new float[size];
+            for (int i = 0; i < size; i++) {
+                int a = 2 * i;
+                int b = Math.min(a + 1, min.length - 1);
+                upperMin[i] = Math.min(min[a], min[b]);
+                upperMax[i] = Math.max(max[a], max[b]);
+            }
+            addLevel(upperMin, upperMax, size);
+            min = upperMin;
+            max = upperMax;
+        }
+        finished = true;
+    }
+
+    private void addLevel(float[] min, float[] max, int size) {
+        mins.add(FloatBuffer.wrap(min, 0, size).slice());
+        maxs.add(FloatBuffer.wrap(max, 0, size).slice());
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getLevelCount() {
+        return mins.size();
+    }
+
+    public int getLevelSize(int level) {
+        return mins.get(level).limit();
+    }
+
+    // Read-only views of a level, for persisting the pyramid.
+    public FloatBuffer getMins(int level) {
+        return mins.get(level).asReadOnlyBuffer();
+    }
+
+    public FloatBuffer getMaxs(int level) {
+        return maxs.get(level).asReadOnlyBuffer();
+    }
+
+    public long getBucketSize(int level) {
+        return (long) BASE_BUCKET << level;
+    }
+
+    // Finest level whose buckets are no wider than the given number of samples (level 0 at minimum).
+    public int levelFor(double samplesPerColumn) {
+        int level = 0;
+        while (level + 1 < getLevelCount() && getBucketSize(level + 1) <= samplesPerColumn) {
+            level++;
+        }
+        return level;
+    }
+
+    // Writes the min and max of samples [start, end) at the given level into range[0] and range[1].
+    public void range(int level, long start, long end, float[] range) {
+        FloatBuffer min = mins.get(level);
+        FloatBuffer max = maxs.get(level);
+        long bucketSize = getBucketSize(level);
+        int first = (int) Math.min(start / bucketSize, min.limit() - 1);
+        int last = (int) Math.min(Math.max(end - 1, start) / bucketSize, min.limit() - 1);
+        float lo = min.get(first);
+        float hi = max.get(first);
+        for (int b = first + 1; b <= last; b++) {
+            float bMin = min.get(b);
+            float bMax = max.get(b);
+            if (bMin < lo) lo = bMin;
+            if (bMax > hi) hi = bMax;
+        }
+        range[0] = lo;
+        range[1] = hi;
+    }
+
+    // Largest value in the level 0 bucket holding the sample, used to place peak markers.
+    public double peakValue(long sampleIndex) {
+        FloatBuffer max = maxs.get(0);
+        int bucket = (int) Math.min(sampleIndex / BASE_BUCKET, max.limit() - 1);
+        return max.get(bucket);
+    }
+}
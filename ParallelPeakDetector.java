@@ -0,0 +1,235 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+// Fork/join version of detectPeaksFromFile for long recordings.
+// Each segment is scanned in parallel for local maxima above the threshold; the MIN_PEAK_DISTANCE
+// rule is then applied once over the ordered candidates, so peaks that straddle a segment boundary
+// are resolved exactly as the sequential loop would.
+// Sums are taken block by block in index order on both paths, so the threshold is bit-identical too.
+// float[] and short[] recordings run the same blocks through SampleKernels; see there for how
+// closely they agree with the double[] path.
+public class ParallelPeakDetector {
+
+    public static final int BLOCK_SIZE = 1 << 16;
+    public static final int MIN_PARALLEL_SAMPLES = 1 << 20; // Below this the sequential loop is faster
+    static final int SEGMENT_SIZE = 1 << 18; // Package-private so tests can place peaks on segment boundaries
+
+    private ParallelPeakDetector() {
+    }
+
+    public static double blockedSum(double[] data, int from, int to) {
+        double total = 0;
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            total += sum(data, start, Math.min(to, start + BLOCK_SIZE));
+        }
+        return total;
+    }
+
+    public static double blockedSumSquares(double[] data, double mean, int from, int to) {
+        double total = 0;
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            total += sumSquares(data, mean, start, Math.min(to, start + BLOCK_SIZE));
+        }
+        return total;
+    }
+
+    public static double calculateThreshold(ForkJoinPool pool, double[] data, double multiplier) {
+        int n = data.length;
+        int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        double[] partials = new double[blocks];
+
+        pool.invoke(new BlockTask(0, blocks, b -> partials[b] = sum(data, b * BLOCK_SIZE, Math.min(n, (b + 1) * BLOCK_SIZE))));
+        double mean = addInOrder(partials) / n;
+
+        pool.invoke(new BlockTask(0, blocks, b -> partials[b] = sumSquares(data, mean, b * BLOCK_SIZE, Math.min(n, (b + 1) * BLOCK_SIZE))));
+        double std = Math.sqrt(addInOrder(partials) / n);
+        return mean + multiplier * std;
+    }
+
+    public static PeakStore detectPeaks(ForkJoinPool pool, double[] data, double threshold, int minPeakDistance) {
+        int n = data.length;
+        int segments = (n + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+        int[][] candidates = new int[segments][];
+        int[] counts = new int[segments];
+
+        pool.invoke(new BlockTask(0, segments, s -> {
+            int from = Math.max(1, s * SEGMENT_SIZE);
+            int to = Math.min(n - 1, (s + 1) * SEGMENT_SIZE);
+            int[] found = new int[64];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (data[i] > threshold && data[i] > data[i - 1] && data[i] > data[i + 1]) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = i;
+                }
+            }
+            candidates[s] = found;
+            counts[s] = count;
+        }));
+
+        return stitch(candidates, counts, minPeakDistance);
+    }
+
+    // Compact storage: the same blocks, summed by SampleKernels.
+    public static double calculateThreshold(ForkJoinPool pool, float[] data, double multiplier) {
+        SampleKernels kernels = Kernels.get();
+        int n = data.length;
+        int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        double[] partials = new double[blocks];
+
+        pool.invoke(new BlockTask(0, blocks, b -> partials[b] = kernels.sum(data, b * BLOCK_SIZE, Math.min(n, (b + 1) * BLOCK_SIZE))));
+        double mean = addInOrder(partials) / n;
+
+        pool.invoke(new BlockTask(0, blocks, b -> partials[b] = kernels.sumSquares(data, mean, b * BLOCK_SIZE, Math.min(n, (b + 1) * BLOCK_SIZE))));
+        double std = Math.sqrt(addInOrder(partials) / n);
+        return mean + multiplier * std;
+    }
+
+    // Integer sums are exact, so the variance comes from the raw moments in one pass over each block.
+    public static double calculateThreshold(ForkJoinPool pool, short[] data, double multiplier) {
+        SampleKernels kernels = Kernels.get();
+        int n = data.length;
+        int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long[] sums = new long[blocks];
+        long[] squares = new long[blocks];
+
+        pool.invoke(new BlockTask(0, blocks, b -> {
+            int from = b * BLOCK_SIZE;
+            int to = Math.min(n, from + BLOCK_SIZE);
+            sums[b] = kernels.sum(data, from, to);
+            squares[b] = kernels.sumSquares(data, from, to);
+        }));
+        long sum = 0;
+        long sumSquares = 0;
+        for (int b = 0; b < blocks; b++) {
+            sum += sums[b];
+            sumSquares += squares[b];
+        }
+        double mean = sum / (double) n;
+        double variance = Math.max(0, (sumSquares - sum * mean) / n);
+        return mean + multiplier * Math.sqrt(variance);
+    }
+
+    public static PeakStore detectPeaks(ForkJoinPool pool, float[] data, double threshold, int minPeakDistance) {
+        SampleKernels kernels = Kernels.get();
+        // The largest float not above the threshold: for every float x, x > threshold iff x > below
+        float below = (float) threshold;
+        if (below > threshold) {
+            below = Math.nextDown(below);
+        }
+        float floatThreshold = below;
+        return detectPeaks(pool, data.length, minPeakDistance, (from, to, out) -> kernels.localMaxima(data, from, to, floatThreshold, out));
+    }
+
+    public static PeakStore detectPeaks(ForkJoinPool pool, short[] data, double threshold, int minPeakDistance) {
+        SampleKernels kernels = Kernels.get();
+        int intThreshold = (int) Math.max(Integer.MIN_VALUE, Math.floor(threshold)); // exact for integer samples
+        return detectPeaks(pool, data.length, minPeakDistance, (from, to, out) -> kernels.localMaxima(data, from, to, intThreshold, out));
+    }
+
+    // One of the localMaxima kernels bound to its array and threshold.
+    private interface SegmentScan {
+        int scan(int from, int to, int[] out);
+    }
+
+    private static PeakStore detectPeaks(ForkJoinPool pool, int n, int minPeakDistance, SegmentScan scanner) {
+        int segments = (n + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+        int[][] candidates = new int[segments][];
+        int[] counts = new int[segments];
+
+        pool.invoke(new BlockTask(0, segments, s -> {
+            int from = Math.max(1, s * SEGMENT_SIZE);
+            int to = Math.min(n - 1, (s + 1) * SEGMENT_SIZE);
+            int[] batch = new int[256];
+            int[] found = new int[64];
+            int count = 0;
+            while (from < to) {
+                int scanned = scanner.scan(from, to, batch);
+                if (count + scanned > found.length) {
+                    found = Arrays.copyOf(found, Math.max(found.length * 2, count + scanned));
+                }
+                System.arraycopy(batch, 0, found, count, scanned);
+                count += scanned;
+                if (scanned < batch.length) {
+                    break;
+                }
+                from = batch[scanned - 1] + 1;
+            }
+            candidates[s] = found;
+            counts[s] = count;
+        }));
+        return stitch(candidates, counts, minPeakDistance);
+    }
+
+    // The distance rule only depends on the last accepted peak, carried across segments.
+    private static PeakStore stitch(int[][] candidates, int[] counts, int minPeakDistance) {
+        PeakStore peakIndices = new PeakStore();
+        long lastPeakIndex = -minPeakDistance;
+        for (int s = 0; s < candidates.length; s++) {
+            for (int k = 0; k < counts[s]; k++) {
+                int i = candidates[s][k];
+                if (i - lastPeakIndex >= minPeakDistance) {
+                    peakIndices.add(i);
+                    lastPeakIndex = i;
+                }
+            }
+        }
+        return peakIndices;
+    }
+
+    private static double sum(double[] data, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    private static double sumSquares(double[] data, double mean, int from, int to) {
+        double sumSquares = 0;
+        for (int i = from; i < to; i++) {
+            double d = data[i] - mean;
+            sumSquares += d * d;
+        }
+        return sumSquares;
+    }
+
+    private static double addInOrder(double[] partials) {
+        double total = 0;
+        for (double partial : partials) {
+            total += partial;
+        }
+        return total;
+    }
+
+    // Runs the consumer for every index in [from, to), splitting until single indices.
+    private static class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer body;
+
+        BlockTask(int from, int to, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    body.accept(from);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BlockTask(from, mid, body), new BlockTask(mid, to, body));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import javax.sound.sampled.AudioFormat;
+
+// Decodes interleaved PCM bytes into doubles without allocating, driven by the stream's AudioFormat.
+// Samples are scaled to the 16-bit range so thresholds and drawing work the same for every bit depth,
+// and multi-channel frames are averaged down to mono.
+public class PcmDecoder {
+
+    private final int channels;
+    private final int bytesPerSample;
+    private final int frameSize;
+    private final boolean bigEndian;
+    private final boolean signed;
+    private final double scale;
+
+    public PcmDecoder(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(encoding) && !AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)) {
+            throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        }
+        int bits = format.getSampleSizeInBits();
+        if (bits != 8 && bits != 16 && bits != 24 && bits != 32) {
+            throw new IllegalArgumentException("Unsupported sample size: " + bits + " bits");
+        }
+
+        channels = Math.max(1, format.getChannels());
+        bytesPerSample = bits / 8;
+        frameSize = format.getFrameSize() > 0 ? format.getFrameSize() : bytesPerSample * channels;
+        bigEndian = format.isBigEndian();
+        signed = AudioFormat.Encoding.PCM_SIGNED.equals(encoding);
+        scale = Math.pow(2, 16 - bits) / channels;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    // Decodes as many whole frames as fit in length bytes and returns the frame count.
+    public int decode(byte[] src, int offset, int length, double[] dst, int dstOffset) {
+        int frames = length / frameSize;
+        int pos = offset;
+        for (int i = 0; i < frames; i++) {
+            long sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += readSample(src, pos + c * bytesPerSample);
+            }
+            dst[dstOffset + i] = sum * scale;
+            pos += frameSize;
+        }
+        return frames;
+    }
+
+    private int readSample(byte[] b, int pos) {
+        int value = 0;
+        if (bigEndian) {
+            for (int k = 0; k < bytesPerSample; k++) {
+                value = (value << 8) | (b[pos + k] & 0xFF);
+            }
+        } else {
+            for (int k = bytesPerSample - 1; k >= 0; k--) {
+                value = (value << 8) | (b[pos + k] & 0xFF);
+            }
+        }
+
+        int shift = 32 - bytesPerSample * 8;
+        if (signed) {
+            return (value << shift) >> shift; // sign-extend
+        }
+        return value - (1 << (bytesPerSample * 8 - 1)); // unsigned PCM is centred on half scale
+    }
+}
@@ -0,0 +1,486 @@
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Network ingest: one selector thread accepts any number of PCM streams from bedside devices and
+// pushes their bytes straight into a push-mode LivePipeline per stream, so a stream costs a socket,
+// a pipeline and a pooled read buffer while it has a partial frame pending; no thread of its own.
+//
+// TCP: each connection starts with a header (big-endian): magic "HBPC", int sampleRate,
+// short channels, short bitsPerSample, short nameLength, name (UTF-8), then interleaved PCM frames,
+// little-endian as in a WAV file, until the sender closes.
+// UDP: each datagram is magic "HBPU", int streamId, int sequence, then whole frames of
+// LivePipeline.DEFAULT_FORMAT. Missing sequence numbers are counted as dropped frames, as many as
+// the last datagram held, and late ones are discarded. A jump of more than RESYNC_DATAGRAMS either
+// way is taken as the sender restarting, and the stream carries on from there. A stream that
+// stays silent for UDP_IDLE_SECONDS is closed.
+//
+// At most maxStreams TCP connections and UDP streams are open together; past that, new connections
+// are closed on accept and datagrams of new UDP streams are ignored. A failure on one connection
+// closes only that connection.
+public class PcmSocketServer implements Closeable {
+
+    public static final int TCP_MAGIC = 0x48425043; // "HBPC"
+    public static final int UDP_MAGIC = 0x48425055; // "HBPU"
+    public static final int TCP_HEADER = 14; // without the name
+    public static final int UDP_HEADER = 12;
+    public static final int MAX_NAME = 256;
+    public static final int DEFAULT_MAX_STREAMS = 64;
+    private static final int BUFFER_SIZE = 1 << 14;
+    private static final int MAX_FRAME_BYTES = 1024; // a full buffer always holds whole frames to push
+    private static final int RESYNC_DATAGRAMS = 1024;
+    private static final int MAX_POOLED = 64;
+    private static final long UDP_IDLE_SECONDS = 5;
+    private static final long ACCEPT_RETRY_SECONDS = 1; // after accept itself fails, e.g. out of file descriptors
+
+    // Called on the selector thread; implementations must hand off anything slow.
+    public interface Listener {
+        void streamOpened(LivePipeline pipeline);
+
+        // The stream has ended and its pipeline has seen endPush; the listener owns stopping it.
+        void streamClosed(LivePipeline pipeline);
+    }
+
+    private static final class TcpStream {
+        final SocketChannel channel;
+        ByteBuffer buffer; // only held while a partial header or frame is pending
+        LivePipeline pipeline;
+
+        TcpStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    // A UDP stream is a sender address and the stream id it puts in every datagram.
+    private static final class UdpKey {
+        final SocketAddress address;
+        final int id;
+
+        UdpKey(SocketAddress address, int id) {
+            this.address = address;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof UdpKey)) {
+                return false;
+            }
+            UdpKey other = (UdpKey) o;
+            return id == other.id && address.equals(other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return address.hashCode() * 31 + id;
+        }
+    }
+
+    private static final class UdpStream {
+        final LivePipeline pipeline;
+        int nextSequence;
+        int lastFrames; // frames in the last datagram, standing in for the size of lost ones
+        long lastNanos;
+
+        UdpStream(LivePipeline pipeline, int sequence) {
+            this.pipeline = pipeline;
+            this.nextSequence = sequence;
+        }
+    }
+
+    private final Selector selector;
+    private final ServerSocketChannel tcp;
+    private final DatagramChannel udp; // null unless a UDP port was given
+    private final DirectBufferPool pool = new DirectBufferPool(BUFFER_SIZE, MAX_POOLED);
+    private final Map<UdpKey, UdpStream> udpStreams = new HashMap<>();
+    private final int maxStreams;
+    private int tcpConnections = 0; // selector thread only
+    private long acceptResumeNanos = 0; // selector thread only; nonzero while accepting is paused
+    private final boolean bandPassFilter;
+    private final PipelineMetrics metrics;
+    private final AnalysisScheduler scheduler;
+    private final Listener listener;
+    private Thread selectorThread;
+    private volatile boolean running = false;
+    private volatile int streamCount = 0;
+    private volatile long bytesReceived = 0;
+
+    // udpPort < 0 disables UDP; port 0 picks a free port.
+    public PcmSocketServer(int tcpPort, int udpPort, int maxStreams, boolean bandPassFilter, PipelineMetrics metrics,
+                           AnalysisScheduler scheduler, Listener listener) throws IOException {
+        this.maxStreams = maxStreams;
+        this.bandPassFilter = bandPassFilter;
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+        this.listener = listener;
+        selector = Selector.open();
+        tcp = ServerSocketChannel.open();
+        DatagramChannel datagrams = null;
+        try {
+            tcp.bind(new InetSocketAddress(tcpPort), 1024);
+            tcp.configureBlocking(false);
+            tcp.register(selector, SelectionKey.OP_ACCEPT);
+            if (udpPort >= 0) {
+                datagrams = DatagramChannel.open();
+                datagrams.setOption(StandardSocketOptions.SO_RCVBUF, 1 << 22);
+                datagrams.bind(new InetSocketAddress(udpPort));
+                datagrams.configureBlocking(false);
+                datagrams.register(selector, SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            if (datagrams != null) {
+                datagrams.close();
+            }
+            tcp.close();
+            selector.close();
+            throw e;
+        }
+        udp = datagrams;
+    }
+
+    public void start() {
+        running = true;
+        selectorThread = new Thread(this::selectLoop, "heartbeat-ingest");
+        selectorThread.setPriority(Thread.MAX_PRIORITY);
+        selectorThread.start();
+    }
+
+    public int getTcpPort() throws IOException {
+        return ((InetSocketAddress) tcp.getLocalAddress()).getPort();
+    }
+
+    public int getUdpPort() throws IOException {
+        return udp != null ? ((InetSocketAddress) udp.getLocalAddress()).getPort() : -1;
+    }
+
+    public int getStreamCount() {
+        return streamCount;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select(TimeUnit.SECONDS.toMillis(1));
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.channel() == udp) {
+                            receive();
+                        } else {
+                            read(key);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // Only the connection it happened on is dropped; the listening channels stay open
+                        e.printStackTrace();
+                        if (key.attachment() instanceof TcpStream) {
+                            closeTcpStream(key, (TcpStream) key.attachment());
+                        } else if (key.channel() == tcp && key.isValid()) {
+                            // The pending connection stays queued, so retrying at once would only spin
+                            key.interestOps(0);
+                            acceptResumeNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(ACCEPT_RETRY_SECONDS);
+                        }
+                    }
+                }
+                if (acceptResumeNanos != 0 && System.nanoTime() - acceptResumeNanos >= 0) {
+                    acceptResumeNanos = 0;
+                    tcp.keyFor(selector).interestOps(SelectionKey.OP_ACCEPT);
+                }
+                expireUdpStreams(false);
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = tcp.accept()) != null) {
+            if (tcpConnections + udpStreams.size() >= maxStreams) {
+                channel.close();
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new TcpStream(channel));
+                tcpConnections++;
+            } catch (IOException e) {
+                e.printStackTrace();
+                channel.close();
+            }
+        }
+    }
+
+    private void read(SelectionKey key) {
+        TcpStream stream = (TcpStream) key.attachment();
+        if (stream.buffer == null) {
+            stream.buffer = pool.acquire();
+        }
+        ByteBuffer buffer = stream.buffer;
+        int n;
+        try {
+            n = stream.channel.read(buffer);
+        } catch (IOException e) {
+            n = -1; // Reset by the device
+        }
+        if (n > 0) {
+            bytesReceived += n;
+        }
+        buffer.flip();
+        boolean valid = stream.pipeline != null || openTcpStream(stream, buffer);
+        // Small reads are held until a whole pipeline block has arrived, so they do not fill the ring
+        // with slivers, or until the buffer is full when a block is larger than it
+        boolean full = buffer.limit() == buffer.capacity();
+        if (valid && stream.pipeline != null && (buffer.remaining() >= stream.pipeline.getBlockBytes() || full || n < 0)) {
+            stream.pipeline.push(buffer);
+        }
+        buffer.compact();
+        if (!valid || n < 0) {
+            closeTcpStream(key, stream);
+        } else if (buffer.position() == 0) {
+            pool.release(buffer);
+            stream.buffer = null;
+        }
+    }
+
+    // Parses the header once it has fully arrived. Returns false if the stream is not ours.
+    private boolean openTcpStream(TcpStream stream, ByteBuffer buffer) {
+        if (buffer.remaining() < TCP_HEADER) {
+            return true;
+        }
+        int start = buffer.position();
+        int nameLength = buffer.getShort(start + 12) & 0xFFFF;
+        if (buffer.getInt(start) != TCP_MAGIC || nameLength > MAX_NAME) {
+            return false;
+        }
+        if (buffer.remaining() < TCP_HEADER + nameLength) {
+            return true;
+        }
+        buffer.getInt(); // magic
+        int sampleRate = buffer.getInt();
+        int channels = buffer.getShort() & 0xFFFF;
+        int bits = buffer.getShort() & 0xFFFF;
+        buffer.getShort(); // name length
+        byte[] nameBytes = new byte[nameLength];
+        buffer.get(nameBytes);
+        String name = new String(nameBytes, StandardCharsets.UTF_8);
+        if (name.isEmpty()) {
+            name = String.valueOf(stream.channel.socket().getRemoteSocketAddress());
+        }
+        if (sampleRate <= 0 || channels <= 0 || bits <= 0 || bits % 8 != 0 || channels * (bits / 8) > MAX_FRAME_BYTES) {
+            return false;
+        }
+        AudioFormat.Encoding encoding = bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+        AudioFormat format = new AudioFormat(encoding, sampleRate, bits, channels, channels * bits / 8, sampleRate, false);
+        try {
+            stream.pipeline = new LivePipeline(name, format, bandPassFilter, metrics, scheduler);
+        } catch (IllegalArgumentException e) {
+            return false; // Not a PCM layout the decoder handles
+        }
+        opened(stream.pipeline);
+        return true;
+    }
+
+    private void closeTcpStream(SelectionKey key, TcpStream stream) {
+        if (!stream.channel.isOpen()) {
+            return; // already closed
+        }
+        tcpConnections--;
+        key.cancel();
+        try {
+            stream.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (stream.buffer != null) {
+            pool.release(stream.buffer);
+            stream.buffer = null;
+        }
+        if (stream.pipeline != null) {
+            closed(stream.pipeline);
+        }
+    }
+
+    private void receive() throws IOException {
+        ByteBuffer buffer = pool.acquire();
+        try {
+            SocketAddress from;
+            while ((from = udp.receive(buffer)) != null) {
+                buffer.flip();
+                bytesReceived += buffer.remaining();
+                datagram(from, buffer);
+                buffer.clear();
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    private void datagram(SocketAddress from, ByteBuffer buffer) {
+        if (buffer.remaining() < UDP_HEADER || buffer.getInt() != UDP_MAGIC) {
+            return;
+        }
+        int id = buffer.getInt();
+        int sequence = buffer.getInt();
+        UdpKey key = new UdpKey(from, id);
+        UdpStream stream = udpStreams.get(key);
+        if (stream == null) {
+            if (tcpConnections + udpStreams.size() >= maxStreams) {
+                return;
+            }
+            LivePipeline pipeline = new LivePipeline("udp " + from + "#" + id, LivePipeline.DEFAULT_FORMAT, bandPassFilter, metrics, scheduler);
+            stream = new UdpStream(pipeline, sequence);
+            udpStreams.put(key, stream);
+            opened(pipeline);
+        }
+        int missing = sequence - stream.nextSequence; // wraps correctly
+        if (missing < -RESYNC_DATAGRAMS || missing > RESYNC_DATAGRAMS) {
+            missing = 0; // The sender restarted its sequence; how much it lost is unknown
+        } else if (missing < 0) {
+            return; // Late or duplicated
+        }
+        if (missing > 0) {
+            stream.pipeline.skip((long) missing * stream.lastFrames);
+        }
+        stream.lastFrames = buffer.remaining() / LivePipeline.DEFAULT_FORMAT.getFrameSize();
+        stream.pipeline.push(buffer);
+        stream.nextSequence = sequence + 1;
+        stream.lastNanos = System.nanoTime();
+    }
+
+    private void expireUdpStreams(boolean all) {
+        long now = System.nanoTime();
+        Iterator<UdpStream> streams = udpStreams.values().iterator();
+        while (streams.hasNext()) {
+            UdpStream stream = streams.next();
+            if (all || now - stream.lastNanos > TimeUnit.SECONDS.toNanos(UDP_IDLE_SECONDS)) {
+                streams.remove();
+                closed(stream.pipeline);
+            }
+        }
+    }
+
+    private void opened(LivePipeline pipeline) {
+        pipeline.startPush();
+        streamCount++;
+        listener.streamOpened(pipeline);
+    }
+
+    private void closed(LivePipeline pipeline) {
+        pipeline.endPush();
+        streamCount--;
+        listener.streamClosed(pipeline);
+    }
+
+    // Stops accepting and ends every open stream; their pipelines are left to the listener.
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        if (selectorThread != null) {
+            try {
+                selectorThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof TcpStream) {
+                closeTcpStream(key, (TcpStream) key.attachment());
+            }
+        }
+        expireUdpStreams(true);
+        try {
+            tcp.close();
+            if (udp != null) {
+                udp.close();
+            }
+        } finally {
+            selector.close();
+        }
+    }
+
+    // Headless ingest node: prints a summary line every few seconds and one row per finished stream.
+    //
+    // usage: java PcmSocketServer [--port N] [--udp-port N] [--max-streams N] [--band-pass] [--report-seconds N]
+    public static void main(String[] args) throws IOException {
+        int port = 7070;
+        int udpPort = -1;
+        int maxStreams = DEFAULT_MAX_STREAMS;
+        boolean bandPass = false;
+        int reportSeconds = 5;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--udp-port": udpPort = Integer.parseInt(args[++i]); break;
+                case "--max-streams": maxStreams = Integer.parseInt(args[++i]); break;
+                case "--band-pass": bandPass = true; break;
+                case "--report-seconds": reportSeconds = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("usage: java PcmSocketServer [--port N] [--udp-port N] [--max-streams N] [--band-pass] [--report-seconds N]");
+                    System.exit(2);
+            }
+        }
+
+        PipelineMetrics metrics = PipelineMetrics.install();
+        // Stopping waits for the pipeline's last drain, so it is kept off the selector thread
+        ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ingest-report");
+            t.setDaemon(true);
+            return t;
+        });
+        PcmSocketServer server = new PcmSocketServer(port, udpPort, maxStreams, bandPass, metrics, AnalysisScheduler.shared(), new Listener() {
+            @Override
+            public void streamOpened(LivePipeline pipeline) {
+            }
+
+            @Override
+            public void streamClosed(LivePipeline pipeline) {
+                background.execute(() -> {
+                    pipeline.stop();
+                    LiveSnapshot snapshot = pipeline.getSnapshot();
+                    System.out.printf(Locale.ROOT, "closed %s bpm=%.2f sdnn_ms=%.2f dropped_frames=%d%n",
+                            pipeline.getName(), snapshot.getBpm(), snapshot.getSdnn(), snapshot.getDroppedFrames());
+                });
+            }
+        });
+        server.start();
+        System.out.println("listening on tcp " + server.getTcpPort() + (udpPort >= 0 ? ", udp " + server.getUdpPort() : ""));
+        background.scheduleAtFixedRate(() -> System.out.printf(Locale.ROOT,
+                "streams=%d received_mb=%.1f samples_per_s=%.0f peaks=%d overruns=%d%n",
+                server.getStreamCount(), server.getBytesReceived() / 1e6, metrics.getSamplesProcessedPerSecond(),
+                metrics.getPeaksDetected(), metrics.getOverruns()), reportSeconds, reportSeconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+    }
+}
@@ -0,0 +1,143 @@
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Loopback stand-in for bedside devices: streams a recording to a PcmSocketServer, paced like a
+// capture (or faster), using the server's TCP or UDP framing. --count N opens N streams of the same
+// file at once, for load tests.
+//
+// usage: java PcmStreamSender [--udp] [--count N] [--speed X|max] HOST:PORT FILE.wav
+public class PcmStreamSender implements Runnable {
+
+    private static final int BLOCK_FRAMES = 512;
+
+    private final InetSocketAddress address;
+    private final File file;
+    private final double speed;
+    private final boolean udp;
+    private final String name;
+    private final int streamId;
+
+    public PcmStreamSender(InetSocketAddress address, File file, double speed, boolean udp, String name, int streamId) {
+        this.address = address;
+        this.file = file;
+        this.speed = speed;
+        this.udp = udp;
+        this.name = name;
+        this.streamId = streamId;
+    }
+
+    @Override
+    public void run() {
+        try {
+            ReplayCaptureSource source = new ReplayCaptureSource(file, speed);
+            AudioFormat format = source.getFormat();
+            if (format.isBigEndian() && format.getSampleSizeInBits() > 8) {
+                throw new IOException("Streams carry little-endian PCM: " + format);
+            }
+            if (udp && !format.matches(LivePipeline.DEFAULT_FORMAT)) {
+                throw new IOException("UDP streams carry " + LivePipeline.DEFAULT_FORMAT + ", not " + format);
+            }
+            source.open(0);
+            try {
+                if (udp) {
+                    sendDatagrams(source);
+                } else {
+                    sendStream(source);
+                }
+            } finally {
+                source.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void sendStream(ReplayCaptureSource source) throws IOException {
+        AudioFormat format = source.getFormat();
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(nameBytes.length, PcmSocketServer.MAX_NAME);
+        ByteBuffer header = ByteBuffer.allocate(PcmSocketServer.TCP_HEADER + nameLength);
+        header.putInt(PcmSocketServer.TCP_MAGIC)
+                .putInt(Math.round(format.getSampleRate()))
+                .putShort((short) format.getChannels())
+                .putShort((short) format.getSampleSizeInBits())
+                .putShort((short) nameLength)
+                .put(nameBytes, 0, nameLength);
+        header.flip();
+
+        byte[] block = new byte[BLOCK_FRAMES * format.getFrameSize()];
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            writeFully(channel, header);
+            int n;
+            while ((n = source.read(block, 0, block.length)) > 0) {
+                writeFully(channel, ByteBuffer.wrap(block, 0, n));
+            }
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void sendDatagrams(ReplayCaptureSource source) throws IOException {
+        byte[] block = new byte[BLOCK_FRAMES * source.getFormat().getFrameSize()];
+        ByteBuffer packet = ByteBuffer.allocate(PcmSocketServer.UDP_HEADER + block.length);
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(address);
+            int sequence = 0;
+            int n;
+            while ((n = source.read(block, 0, block.length)) > 0) {
+                packet.clear();
+                packet.putInt(PcmSocketServer.UDP_MAGIC).putInt(streamId).putInt(sequence++).put(block, 0, n);
+                packet.flip();
+                channel.write(packet);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean udp = false;
+        int count = 1;
+        double speed = 1;
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--udp": udp = true; break;
+                case "--count": count = Integer.parseInt(args[++i]); break;
+                case "--speed":
+                    String value = args[++i];
+                    speed = "max".equalsIgnoreCase(value) ? ReplayCaptureSource.MAX_SPEED : Double.parseDouble(value);
+                    break;
+                default: positional.add(args[i]);
+            }
+        }
+        if (positional.size() != 2 || !positional.get(0).contains(":")) {
+            System.err.println("usage: java PcmStreamSender [--udp] [--count N] [--speed X|max] HOST:PORT FILE.wav");
+            System.exit(2);
+        }
+        String target = positional.get(0);
+        int colon = target.lastIndexOf(':');
+        InetSocketAddress address = new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+        File file = new File(positional.get(1));
+
+        List<Thread> senders = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Thread sender = new Thread(new PcmStreamSender(address, file, speed, udp, file.getName() + "#" + i, i), "sender-" + i);
+            sender.start();
+            senders.add(sender);
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.Arrays;
+
+// Primitive ring buffer of peak positions (sample indices or millisecond timestamps), oldest first.
+// Peaks are appended at the tail and expired from the head, both in O(1) with no boxing; the
+// buffer doubles when full so whole-file analysis can hold millions of peaks.
+// BPM over any trailing span of the retained peaks is a binary search away, with no copy.
+public class PeakStore {
+
+    private long[] values;
+    private int mask;
+    private long head = 0; // sequence number of the oldest retained peak
+    private long tail = 0; // sequence number of the next peak
+
+    public PeakStore() {
+        this(64);
+    }
+
+    public PeakStore(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1;
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    public void add(long value) {
+        if (tail - head == values.length) {
+            grow();
+        }
+        values[(int) (tail & mask)] = value;
+        tail++;
+    }
+
+    private void grow() {
+        long[] grown = new long[values.length * 2];
+        int grownMask = grown.length - 1;
+        // Sequence numbers stay the same, so every retained peak moves to its slot under the new mask
+        for (long seq = head; seq < tail; seq++) {
+            grown[(int) (seq & grownMask)] = values[(int) (seq & mask)];
+        }
+        values = grown;
+        mask = grownMask;
+    }
+
+    // Drops peaks older than the cutoff from the head.
+    public void expireBefore(long cutoff) {
+        while (head < tail && values[(int) (head & mask)] < cutoff) {
+            head++;
+        }
+    }
+
+    public void clear() {
+        head = tail;
+    }
+
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    // i-th retained peak, 0 being the oldest.
+    public long get(int i) {
+        return values[(int) ((head + i) & mask)];
+    }
+
+    public long first() {
+        return get(0);
+    }
+
+    public long last() {
+        return values[(int) ((tail - 1) & mask)];
+    }
+
+    // Position of the first retained peak >= value; peaks are added in ascending order.
+    public int lowerBound(long value) {
+        int lo = 0;
+        int hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (get(mid) < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public long[] toArray() {
+        long[] out = new long[size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = get(i);
+        }
+        return out;
+    }
+
+    // Peaks per minute over all retained peaks, from the first-to-last span.
+    public double bpm(long unitsPerMinute) {
+        if (size() < 2) {
+            return 0;
+        }
+        double averageInterval = (double) (last() - first()) / (size() - 1);
+        return unitsPerMinute / averageInterval;
+    }
+
+    // Peaks per minute over the retained peaks no more than span before the newest one.
+    public double bpm(long span, long unitsPerMinute) {
+        if (size() < 2) {
+            return 0;
+        }
+        int from = lowerBound(last() - span);
+        int count = size() - from;
+        if (count < 2) {
+            return 0;
+        }
+        double averageInterval = (double) (last() - get(from)) / (count - 1);
+        return unitsPerMinute / averageInterval;
+    }
+}
@@ -0,0 +1,8 @@
+// Management view of one running pipeline's stage latencies, registered as
+// heartbeat:type=PipelineLatencies,name=<source>,id=<n> while it runs.
+public interface PipelineLatenciesMXBean {
+
+    String getSource();
+
+    String[] getLatencies();
+}
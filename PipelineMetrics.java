@@ -0,0 +1,273 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Health counters for the live pipeline. The capture, analysis and paint threads only ever add to
+// LongAdders, which do not contend, so instrumenting the capture loop costs a few nanoseconds.
+// A background sampler turns totals into per-second rates and, if configured, appends them to a CSV:
+//   -Dheartbeat.metrics.csv=FILE  -Dheartbeat.metrics.interval=SECONDS (default 1)
+// Totals are shared by every pipeline; latencies are per pipeline, each running one registered as
+// its own PipelineLatenciesMXBean and listed under its source name in getLatencies.
+public class PipelineMetrics implements PipelineMetricsMXBean, Closeable {
+
+    public static final String OBJECT_NAME = "heartbeat:type=PipelineMetrics";
+    public static final String LATENCIES_TYPE = "heartbeat:type=PipelineLatencies";
+
+    private final LongAdder buffersRead = new LongAdder();
+    private final LongAdder samplesProcessed = new LongAdder();
+    private final LongAdder peaksDetected = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder paintCount = new LongAdder();
+    private final LongAdder paintNanos = new LongAdder();
+    private volatile long audioDataBytes = 0;
+    private final Map<String, Latencies> pipelines = new ConcurrentHashMap<>(); // by ObjectName
+    private final AtomicLong pipelineIds = new AtomicLong();
+    private volatile boolean registered = false;
+
+    // Sampler state, only touched by the sampler thread
+    private ScheduledExecutorService sampler;
+    private PrintWriter csv;
+    private long lastSampleNanos;
+    private long lastBuffersRead;
+    private long lastSamplesProcessed;
+    private volatile double buffersReadPerSecond = 0;
+    private volatile double samplesProcessedPerSecond = 0;
+
+    // Registers with the platform MBeanServer and starts the sampler; failures are reported, not fatal.
+    public static PipelineMetrics install() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+            metrics.registered = true;
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        String csvFile = System.getProperty("heartbeat.metrics.csv");
+        long interval = Long.getLong("heartbeat.metrics.interval", 1);
+        try {
+            metrics.startSampler(csvFile != null ? new File(csvFile) : null, Math.max(1, interval));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(metrics::close, "heartbeat-metrics-close"));
+        return metrics;
+    }
+
+    public void startSampler(File csvFile, long intervalSeconds) throws IOException {
+        if (csvFile != null) {
+            boolean header = !csvFile.exists() || csvFile.length() == 0;
+            csv = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFile, true), StandardCharsets.UTF_8)));
+            if (header) {
+                csv.println("time_ms,buffers_read,buffers_per_s,samples_processed,samples_per_s,peaks,overruns,dropped_frames,paints,paint_mean_ms,audio_data_bytes");
+            }
+        }
+        lastSampleNanos = System.nanoTime();
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heartbeat-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(this::sample, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        long buffers = buffersRead.sum();
+        long samples = samplesProcessed.sum();
+        double seconds = (now - lastSampleNanos) / 1e9;
+        buffersReadPerSecond = (buffers - lastBuffersRead) / seconds;
+        samplesProcessedPerSecond = (samples - lastSamplesProcessed) / seconds;
+        lastSampleNanos = now;
+        lastBuffersRead = buffers;
+        lastSamplesProcessed = samples;
+
+        if (csv != null) {
+            csv.printf(Locale.ROOT, "%d,%d,%.1f,%d,%.1f,%d,%d,%d,%d,%.3f,%d%n",
+                    System.currentTimeMillis(), buffers, buffersReadPerSecond, samples, samplesProcessedPerSecond,
+                    getPeaksDetected(), getOverruns(), getDroppedFrames(), getPaintCount(), getPaintMeanMillis(), audioDataBytes);
+            csv.flush();
+        }
+    }
+
+    public void bufferRead() {
+        buffersRead.increment();
+    }
+
+    public void samplesProcessed(int count) {
+        samplesProcessed.add(count);
+    }
+
+    public void peakDetected() {
+        peaksDetected.increment();
+    }
+
+    public void overrun(int frames) {
+        overruns.increment();
+        droppedFrames.add(frames);
+    }
+
+    public void painted(long nanos) {
+        paintCount.increment();
+        paintNanos.add(nanos);
+    }
+
+    public void setAudioDataBytes(long bytes) {
+        audioDataBytes = bytes;
+    }
+
+    private static final class Latencies implements PipelineLatenciesMXBean {
+        private final String source;
+        private final LatencyHistogram[] histograms;
+
+        Latencies(String source, LatencyHistogram[] histograms) {
+            this.source = source;
+            this.histograms = histograms;
+        }
+
+        @Override
+        public String getSource() {
+            return source;
+        }
+
+        @Override
+        public String[] getLatencies() {
+            String[] lines = new String[histograms.length];
+            for (int i = 0; i < histograms.length; i++) {
+                lines[i] = histograms[i].toString();
+            }
+            return lines;
+        }
+    }
+
+    // A pipeline's histograms, from its start until removePipeline with the returned key. If this
+    // instance was installed they also get an MXBean of their own.
+    public String addPipeline(String source, LatencyHistogram[] histograms) {
+        Latencies latencies = new Latencies(source, histograms);
+        String key = LATENCIES_TYPE + ",name=" + ObjectName.quote(source) + ",id=" + pipelineIds.incrementAndGet();
+        pipelines.put(key, latencies);
+        if (registered) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(latencies, new ObjectName(key));
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+        return key;
+    }
+
+    public void removePipeline(String key) {
+        if (pipelines.remove(key) != null && registered) {
+            unregister(key);
+        }
+    }
+
+    private static void unregister(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
+        } catch (JMException e) {
+            // Not registered
+        }
+    }
+
+    @Override
+    public long getBuffersRead() {
+        return buffersRead.sum();
+    }
+
+    @Override
+    public double getBuffersReadPerSecond() {
+        return buffersReadPerSecond;
+    }
+
+    @Override
+    public long getSamplesProcessed() {
+        return samplesProcessed.sum();
+    }
+
+    @Override
+    public double getSamplesProcessedPerSecond() {
+        return samplesProcessedPerSecond;
+    }
+
+    @Override
+    public long getPeaksDetected() {
+        return peaksDetected.sum();
+    }
+
+    @Override
+    public long getOverruns() {
+        return overruns.sum();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    @Override
+    public long getPaintCount() {
+        return paintCount.sum();
+    }
+
+    @Override
+    public double getPaintMeanMillis() {
+        long count = paintCount.sum();
+        return count > 0 ? paintNanos.sum() / 1e6 / count : 0;
+    }
+
+    @Override
+    public long getAudioDataBytes() {
+        return audioDataBytes;
+    }
+
+    // Every running pipeline's histograms, each line prefixed with its source.
+    @Override
+    public String[] getLatencies() {
+        List<String> lines = new ArrayList<>();
+        for (Latencies latencies : pipelines.values()) {
+            for (String line : latencies.getLatencies()) {
+                lines.add(latencies.getSource() + ": " + line);
+            }
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public void close() {
+        if (sampler != null) {
+            sampler.shutdown();
+            try {
+                sampler.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (csv != null) {
+            sample(); // Final row for the post-mortem
+            csv.close();
+        }
+        for (String key : pipelines.keySet()) {
+            removePipeline(key);
+        }
+        unregister(OBJECT_NAME);
+    }
+}
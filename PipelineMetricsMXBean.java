@@ -0,0 +1,26 @@
+// Management view of the live pipelines, registered as heartbeat:type=PipelineMetrics.
+// Totals are since the application started; rates cover the last sampling interval.
+public interface PipelineMetricsMXBean {
+
+    long getBuffersRead();
+
+    double getBuffersReadPerSecond();
+
+    long getSamplesProcessed();
+
+    double getSamplesProcessedPerSecond();
+
+    long getPeaksDetected();
+
+    long getOverruns();
+
+    long getDroppedFrames();
+
+    long getPaintCount();
+
+    double getPaintMeanMillis();
+
+    long getAudioDataBytes();
+
+    String[] getLatencies();
+}
@@ -0,0 +1,150 @@
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// PNG encoder fed a band of rows at a time, so an image never has to exist in memory as a whole.
+// Writes 8-bit RGB. Each row gets the None, Sub or Up filter, whichever leaves the smallest
+// residuals, and the deflated stream goes out in IDAT chunks of at most CHUNK_BYTES as it is produced.
+// Only the current and previous scanlines are held.
+public class PngStreamWriter implements Closeable {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_BYTES = 1 << 16;
+    private static final int BYTES_PER_PIXEL = 3;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater = new Deflater(6);
+    private final byte[] chunk = new byte[CHUNK_BYTES];
+    private final CRC32 crc = new CRC32();
+    private byte[] previous; // unfiltered, zero before the first row
+    private byte[] current;
+    private final byte[][] filtered = new byte[3][];
+    private int rowsWritten = 0;
+
+    public PngStreamWriter(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Empty image: " + width + "x" + height);
+        }
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        int stride = width * BYTES_PER_PIXEL;
+        previous = new byte[stride];
+        current = new byte[stride];
+        for (int f = 0; f < filtered.length; f++) {
+            filtered[f] = new byte[stride + 1];
+            filtered[f][0] = (byte) f;
+        }
+
+        this.out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 2; // truecolour
+        writeChunk("IHDR", header, header.length);
+    }
+
+    // rows rows of 0xRRGGBB pixels, scanline ints apart, starting at offset.
+    public void writeRows(int[] rgb, int offset, int scanline, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("More than " + height + " rows");
+        }
+        for (int r = 0; r < rows; r++) {
+            int base = offset + r * scanline;
+            for (int x = 0, b = 0; x < width; x++) {
+                int p = rgb[base + x];
+                current[b++] = (byte) (p >> 16);
+                current[b++] = (byte) (p >> 8);
+                current[b++] = (byte) p;
+            }
+            byte[] row = filter();
+            deflater.setInput(row);
+            while (!deflater.needsInput()) {
+                drain(Deflater.NO_FLUSH);
+            }
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+            rowsWritten++;
+        }
+    }
+
+    // Fills the None, Sub and Up candidates and returns the one with the smallest absolute sum.
+    private byte[] filter() {
+        byte[] none = filtered[0];
+        byte[] sub = filtered[1];
+        byte[] up = filtered[2];
+        long noneCost = 0, subCost = 0, upCost = 0;
+        for (int i = 0; i < current.length; i++) {
+            int left = i >= BYTES_PER_PIXEL ? current[i - BYTES_PER_PIXEL] : 0;
+            byte n = current[i];
+            byte s = (byte) (current[i] - left);
+            byte u = (byte) (current[i] - previous[i]);
+            none[i + 1] = n;
+            sub[i + 1] = s;
+            up[i + 1] = u;
+            noneCost += Math.abs(n);
+            subCost += Math.abs(s);
+            upCost += Math.abs(u);
+        }
+        if (subCost <= noneCost && subCost <= upCost) {
+            return sub;
+        }
+        return upCost <= noneCost ? up : none;
+    }
+
+    private void drain(int flush) throws IOException {
+        int n = deflater.deflate(chunk, 0, chunk.length, flush);
+        if (n > 0) {
+            writeChunk("IDAT", chunk, n);
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] b, int at, int v) {
+        b[at] = (byte) (v >>> 24);
+        b[at + 1] = (byte) (v >>> 16);
+        b[at + 2] = (byte) (v >>> 8);
+        b[at + 3] = (byte) v;
+    }
+
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    // Finishes the image and closes the stream. Fails if fewer than height rows were written.
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height) {
+                throw new IOException("Image incomplete: " + rowsWritten + " of " + height + " rows");
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain(Deflater.NO_FLUSH);
+            }
+            writeChunk("IEND", chunk, 0);
+            out.flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+}
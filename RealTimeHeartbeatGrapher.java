@@ -5,38 +5,61 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
 import java.io.*;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 public class RealTimeHeartbeatGrapher extends JPanel {
 
-    private static final int SAMPLE_RATE = 44100;
-    private static final int BUFFER_SIZE = 1024;
     private static final int UPDATE_INTERVAL_MS = 100;
-    private static final double THRESHOLD = 1000.0;
-    private static final double THRESHOLD_MULTIPLIER = 2.5;
-    private static final int MIN_PEAK_DISTANCE = 7500;
+    private static final double LIVE_HISTORY_S = Math.min(LivePipeline.MAX_HISTORY_S,
+            Double.parseDouble(System.getProperty("heartbeat.history.seconds", "10")));
 
-    private byte[] audioBuffer = new byte[BUFFER_SIZE];
     private double[] audioData;
-    private List<Long> peakTimes = new ArrayList<>();
-    private List<Integer> peakIndices = new ArrayList<>();
+    private MinMaxPyramid pyramid;
+    private MappedWav mappedWav; // raw samples of the open file, read only for the visible range
+    private final Viewport viewport = new Viewport();
+    private double[] viewSamples = new double[0];
+    private int dragX;
+    private PeakStore peakTimes = new PeakStore();
+    private PeakStore peakIndices = new PeakStore();
     private double bpm = 0;
-    private double hrv = 0; // Heart Rate Variation will be in milliseconds
+    private double fftBpm = 0; // periodicity estimate, next to the peak-counted bpm
+    private double fftConfidence = 0;
+    private double sdnn = 0; // Heart Rate Variability, in milliseconds
+    private double rmssd = 0;
+    private double pnn50 = 0;
     private boolean isRealTimeGraphing = false;
     private boolean isFileProcessing = false;
-
-    private TargetDataLine line;
+    private int fileRun = 0; // the file analysis whose results are shown; bumped on the EDT to drop older ones
+    private volatile boolean adaptiveThreshold = false;
+    private volatile boolean bandPassFilter = false;
+
+    private final PipelineMetrics metrics = PipelineMetrics.install();
+    private final AnalysisCache analysisCache = AnalysisCache.openDefault();
+    private final List<LiveMonitor> monitors = new ArrayList<>(); // one tile per live source
+    private PcmSocketServer ingestServer; // set while listening for network streams
+    private ExecutorService streamTasks; // runs the listener's slow work for ingestServer, in order
+    private Timer displayTimer;
     private JFrame parentFrame;
     private JPanel graphPanel;
     private JButton chooseFileButton;
     private JButton startRealTimeButton;
+    private JButton addSourceButton;
     private JButton stopRealTimeButton;
     private JButton clearButton;
     private JButton saveButton;
+    private JButton trendsButton;
+    private JCheckBox adaptiveThresholdBox;
+    private JCheckBox bandPassFilterBox;
+    private JCheckBox recordBox;
 
     public RealTimeHeartbeatGrapher(JFrame parentFrame) {
         this.parentFrame = parentFrame;
@@ -48,24 +71,18 @@ public class RealTimeHeartbeatGrapher extends JPanel {
         graphPanel = new JPanel() {
         @Override
         protected void paintComponent(Graphics g) {
+            long paintStart = System.nanoTime();
             super.paintComponent(g);
-            if (audioData != null) {
-                int width = getWidth();
-                int height = getHeight();
-                g.setColor(Color.WHITE);
-                int lastX = 0, lastY = height / 2;
-                for (int i = 0; i < audioData.length; i++) {
-                    int x = i * width / audioData.length;
-                    int y = height / 2 + (int) (audioData[i] * height / Short.MAX_VALUE * 0.4);
-                    g.drawLine(lastX, lastY, x, y);
-                    lastX = x;
-                    lastY = y;
-                }
+            if (!isFileProcessing && !monitors.isEmpty()) {
+                drawMonitors(g, getWidth(), getHeight());
+            } else {
+                drawWaveform(g, getWidth(), getHeight());
+                g.setColor(Color.RED);
+                g.setFont(new Font("Arial", Font.BOLD, 20));
+                g.drawString("BPM: " + (int) bpm + "   FFT: " + (int) fftBpm + " (" + (int) (fftConfidence * 100) + "%)", 10, 30);
+                g.drawString("HRV: SDNN " + (int) sdnn + " ms, RMSSD " + (int) rmssd + " ms, pNN50 " + (int) pnn50 + "%", 10, 60);
             }
-            g.setColor(Color.RED);
-            g.setFont(new Font("Arial", Font.BOLD, 20));
-            g.drawString("BPM: " + (int) bpm, 10, 30);
-            g.drawString("HRV: " + (int) hrv + " ms", 10, 60);
+            metrics.painted(System.nanoTime() - paintStart);
         }
 
         };
@@ -73,25 +90,78 @@ public class RealTimeHeartbeatGrapher extends JPanel {
         graphPanel.setLayout(new BorderLayout());
         add(graphPanel, BorderLayout.CENTER);
 
+        // Wheel zooms around the pointer, drag pans, double-click shows the whole recording
+        graphPanel.addMouseWheelListener(e -> {
+            if (isFileProcessing && pyramid != null) {
+                viewport.zoom(e.getX() / (double) graphPanel.getWidth(), Math.pow(1.25, e.getPreciseWheelRotation()));
+                repaint();
+            }
+        });
+        MouseAdapter panner = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragX = e.getX();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (isFileProcessing && pyramid != null) {
+                    viewport.pan((dragX - e.getX()) * viewport.getLength() / Math.max(1, graphPanel.getWidth()));
+                    dragX = e.getX();
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && pyramid != null) {
+                    viewport.reset(pyramid.getSampleCount());
+                    repaint();
+                }
+            }
+        };
+        graphPanel.addMouseListener(panner);
+        graphPanel.addMouseMotionListener(panner);
+
         JPanel buttonPanel = new JPanel(new FlowLayout());
         buttonPanel.setBackground(Color.DARK_GRAY);
         chooseFileButton = new JButton("Choose File");
         startRealTimeButton = new JButton("Start Real-Time");
+        addSourceButton = new JButton("Add Source");
         stopRealTimeButton = new JButton("Stop Real-Time");
         clearButton = new JButton("Clear Graph");
         saveButton = new JButton("Save Graph");
+        trendsButton = new JButton("Trends");
+        adaptiveThresholdBox = new JCheckBox("Adaptive Threshold");
+        adaptiveThresholdBox.setBackground(Color.DARK_GRAY);
+        adaptiveThresholdBox.setForeground(Color.WHITE);
+        bandPassFilterBox = new JCheckBox("Band-pass Filter");
+        bandPassFilterBox.setBackground(Color.DARK_GRAY);
+        bandPassFilterBox.setForeground(Color.WHITE);
+        recordBox = new JCheckBox("Record to WAV");
+        recordBox.setBackground(Color.DARK_GRAY);
+        recordBox.setForeground(Color.WHITE);
         buttonPanel.add(chooseFileButton);
         buttonPanel.add(startRealTimeButton);
+        buttonPanel.add(addSourceButton);
         buttonPanel.add(stopRealTimeButton);
         buttonPanel.add(clearButton);
         buttonPanel.add(saveButton);
+        buttonPanel.add(trendsButton);
+        buttonPanel.add(adaptiveThresholdBox);
+        buttonPanel.add(bandPassFilterBox);
+        buttonPanel.add(recordBox);
         add(buttonPanel, BorderLayout.SOUTH);
 
         chooseFileButton.addActionListener(e -> chooseFile());
         startRealTimeButton.addActionListener(e -> startRealTimeGraphing());
+        addSourceButton.addActionListener(e -> addSource());
         stopRealTimeButton.addActionListener(e -> stopRealTimeGraphing());
         clearButton.addActionListener(e -> clearGraph());
         saveButton.addActionListener(e -> saveGraph());
+        trendsButton.addActionListener(e -> TrendChart.showWindow(parentFrame, TrendStore.defaultRoot()));
+        adaptiveThresholdBox.addActionListener(e -> adaptiveThreshold = adaptiveThresholdBox.isSelected());
+        bandPassFilterBox.addActionListener(e -> bandPassFilter = bandPassFilterBox.isSelected());
     }
 
     private void chooseFile() {
@@ -99,157 +169,367 @@ public class RealTimeHeartbeatGrapher extends JPanel {
         int result = fileChooser.showOpenDialog(parentFrame);
         if (result == JFileChooser.APPROVE_OPTION) {
             File selectedFile = fileChooser.getSelectedFile();
-            processWavFile(selectedFile);
+            int run = ++fileRun;
+            Thread analysis = new Thread(() -> processWavFile(selectedFile, run), "file-analysis");
+            analysis.setDaemon(true);
+            analysis.start();
         }
     }
 
-    private void processWavFile(File file) {
-        try {
-            AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(file);
-            AudioFormat format = audioInputStream.getFormat();
-
-            int frameSize = format.getFrameSize();
-            byte[] buffer = new byte[audioInputStream.available()];
-            audioInputStream.read(buffer);
-
-            audioData = new double[buffer.length / frameSize];
-            for (int i = 0; i < audioData.length; i++) {
-                int start = i * frameSize;
-                int end = start + frameSize;
-                byte[] frameBytes = new byte[frameSize];
-                System.arraycopy(buffer, start, frameBytes, 0, frameSize);
-                audioData[i] = ByteBuffer.wrap(frameBytes).getShort();
+    // On its own thread. Its results are dropped if another file was chosen, or the graph cleared or
+    // a live session started, since run began.
+    private void processWavFile(File file, int run) {
+        SwingUtilities.invokeLater(() -> {
+            if (run != fileRun) {
+                return;
             }
-
-            audioInputStream.close();
-
+            audioData = null;
+            pyramid = null;
+            peakIndices = new PeakStore();
+            peakTimes = new PeakStore();
+            fftBpm = 0;
+            fftConfidence = 0;
             isFileProcessing = true;
-            detectPeaksFromFile();
-            calculateBPMFromFile();
-            calculateHRV();
-            repaint();
+        });
+
+        try {
+            RecordingAnalyzer analyzer = new RecordingAnalyzer(adaptiveThreshold, bandPassFilter, true, ForkJoinPool.commonPool());
+            analyzer.setCache(analysisCache);
+            // Show a running BPM while a long recording is still being streamed; bpm is only touched on the EDT
+            analyzer.setProgressListener((samplesRead, runningBpm) -> SwingUtilities.invokeLater(() -> {
+                if (run == fileRun) {
+                    bpm = runningBpm;
+                    repaint();
+                }
+            }));
+            analyzer.processWavFile(file);
+            MappedWav mapped = null;
+            try {
+                mapped = new MappedWav(file);
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace(); // Not plain PCM: zooming in falls back to the decoded samples
+            }
+            MappedWav openedWav = mapped;
+
+            SwingUtilities.invokeLater(() -> {
+                if (run == fileRun) {
+                    showAnalysis(analyzer, openedWav);
+                } else if (openedWav != null) {
+                    try {
+                        openedWav.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
         } catch (UnsupportedAudioFileException | IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void detectPeaksFromFile() {
-        peakIndices.clear();
-        peakTimes.clear(); // Clear previous peak times
-        
-        double threshold = calculateThreshold(audioData);
-        int lastPeakIndex = -MIN_PEAK_DISTANCE;
-    
-        for (int i = 1; i < audioData.length - 1; i++) {
-            if (audioData[i] > threshold && audioData[i] > audioData[i - 1] && audioData[i] > audioData[i + 1]) {
-                if (i - lastPeakIndex >= MIN_PEAK_DISTANCE) {
-                    peakIndices.add(i);
-                    peakTimes.add((long)i * 1000 / SAMPLE_RATE); // Convert index to time in milliseconds
-                    lastPeakIndex = i;
-                }
-            }
-        }
+    // Takes over a finished analysis for display; on the EDT, or directly from the benchmarks.
+    void showAnalysis(RecordingAnalyzer analyzer, MappedWav openedWav) {
+        closeMappedWav();
+        mappedWav = openedWav;
+        audioData = openedWav != null ? null : analyzer.getAudioData();
+        pyramid = analyzer.getPyramid();
+        viewport.reset(pyramid != null ? pyramid.getSampleCount() : 0);
+        peakIndices = analyzer.getPeakIndices();
+        peakTimes = analyzer.getPeakTimes();
+        bpm = analyzer.getBpm();
+        fftBpm = analyzer.getFftBpm();
+        fftConfidence = analyzer.getFftConfidence();
+        sdnn = analyzer.getSdnn();
+        rmssd = analyzer.getRmssd();
+        pnn50 = analyzer.getPnn50();
+        metrics.setAudioDataBytes(audioData != null ? audioData.length * 8L : 0);
+        isFileProcessing = true;
+        repaint();
     }
-    
 
-    private double calculateThreshold(double[] data) {
-        double mean = calculateMean(data, 0, data.length - 1);
-        double std = calculateStd(data, mean, 0, data.length - 1);
-        return mean + THRESHOLD_MULTIPLIER * std;
+    // The graph as it is on screen; Save Graph writes it, and the benchmarks time it.
+    void paintGraph(Graphics g) {
+        graphPanel.paint(g);
     }
 
-    private double calculateMean(double[] data, int start, int end) {
-        double sum = 0;
-        for (int i = start; i <= end; i++) {
-            sum += data[i];
+    // Starts a new session on the default input; further sources are added with Add Source.
+    private void startRealTimeGraphing() {
+        if (!isRealTimeGraphing) {
+            startMonitor(new LineCaptureSource(null, LivePipeline.DEFAULT_FORMAT));
         }
-        return sum / (end - start + 1);
     }
 
-    private double calculateStd(double[] data, double mean, int start, int end) {
-        double sumSquares = 0;
-        for (int i = start; i <= end; i++) {
-            sumSquares += Math.pow(data[i] - mean, 2);
+    private void addSource() {
+        String[] kinds = {"Input line", "Replay WAV file", "Network streams"};
+        Object kind = JOptionPane.showInputDialog(parentFrame, "Source type:", "Add Source", JOptionPane.PLAIN_MESSAGE,
+                null, kinds, kinds[0]);
+        if (kind == null) {
+            return;
+        }
+        try {
+            if (kind == kinds[0]) {
+                List<Mixer.Info> mixers = LineCaptureSource.captureMixers(LivePipeline.DEFAULT_FORMAT);
+                if (mixers.isEmpty()) {
+                    JOptionPane.showMessageDialog(parentFrame, "No input lines support " + LivePipeline.DEFAULT_FORMAT);
+                    return;
+                }
+                Mixer.Info mixer = (Mixer.Info) JOptionPane.showInputDialog(parentFrame, "Input line:", "Add Source",
+                        JOptionPane.PLAIN_MESSAGE, null, mixers.toArray(), mixers.get(0));
+                if (mixer != null) {
+                    startMonitor(new LineCaptureSource(mixer, LivePipeline.DEFAULT_FORMAT));
+                }
+            } else if (kind == kinds[1]) {
+                JFileChooser fileChooser = new JFileChooser();
+                if (fileChooser.showOpenDialog(parentFrame) == JFileChooser.APPROVE_OPTION) {
+                    startMonitor(new ReplayCaptureSource(fileChooser.getSelectedFile()));
+                }
+            } else {
+                startIngest();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
         }
-        double variance = sumSquares / (end - start + 1);
-        return Math.sqrt(variance);
     }
 
-    private void calculateBPMFromFile() {
-        if (peakIndices.size() < 2) {
-            bpm = 0;
-            return;
+    // Each source gets its own pipeline; all of them share the analysis workers and this panel's timer.
+    private void startMonitor(CaptureSource source) {
+        if (!isRealTimeGraphing) {
+            clearMonitors();
+        }
+        try {
+            LivePipeline pipeline = new LivePipeline(source, bandPassFilter, metrics, AnalysisScheduler.shared());
+            if (recordBox.isSelected() && source instanceof LineCaptureSource) {
+                JFileChooser fileChooser = new JFileChooser();
+                fileChooser.setDialogTitle("Record " + source.getName());
+                if (fileChooser.showSaveDialog(parentFrame) != JFileChooser.APPROVE_OPTION) {
+                    return;
+                }
+                String fileName = fileChooser.getSelectedFile().getAbsolutePath();
+                if (!fileName.toLowerCase().endsWith(".wav")) {
+                    fileName += ".wav";
+                }
+                pipeline.recordTo(new File(fileName));
+            }
+            try {
+                pipeline.trendTo(TrendStore.sourceDir(TrendStore.defaultRoot(), source.getName()));
+            } catch (IOException e) {
+                e.printStackTrace(); // Monitor without a trend history, e.g. when the source is already being recorded
+            }
+            pipeline.start();
+            addMonitor(pipeline);
+        } catch (LineUnavailableException | IOException e) {
+            e.printStackTrace();
         }
+    }
 
-        double totalTimeInSeconds = audioData.length / (double) SAMPLE_RATE;
-        bpm = (peakIndices.size() / totalTimeInSeconds) * 60;
+    private void addMonitor(LivePipeline pipeline) {
+        monitors.add(new LiveMonitor(pipeline, LIVE_HISTORY_S));
+        startSession();
     }
 
-    private void calculateHRV() {
-        if (peakTimes.size() < 2) {
-            hrv = 0;
-            return;
+    private void startSession() {
+        if (!isRealTimeGraphing) {
+            isRealTimeGraphing = true;
+            isFileProcessing = false;
+            fileRun++;
+            // One render loop for every source: the UI only samples each pipeline's latest snapshot
+            displayTimer = new Timer(UPDATE_INTERVAL_MS, e -> updateMonitors());
+            displayTimer.start();
         }
+    }
 
-        long sum = 0;
-        for (int i = 1; i < peakIndices.size(); i++) {
-            sum += peakIndices.get(i) - peakIndices.get(i - 1);
+    // Every PCM stream that connects gets a tile. Ports from -Dheartbeat.ingest.port (default 7070)
+    // and -Dheartbeat.ingest.udp.port (default off); at most -Dheartbeat.ingest.max.streams (default 64).
+    private void startIngest() throws IOException {
+        if (ingestServer != null) {
+            JOptionPane.showMessageDialog(parentFrame, "Already listening on port " + ingestServer.getTcpPort());
+            return;
         }
-        hrv = (double) (sum / (peakIndices.size() - 1)) / 1000;
+        if (!isRealTimeGraphing) {
+            clearMonitors();
+        }
+        // Opening trend files and stopping pipelines are too slow for the selector thread
+        ExecutorService tasks = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ingest-streams");
+            t.setDaemon(true);
+            return t;
+        });
+        streamTasks = tasks; // the listener keeps its own reference: the field is cleared before the server closes
+        ingestServer = new PcmSocketServer(Integer.getInteger("heartbeat.ingest.port", 7070),
+                Integer.getInteger("heartbeat.ingest.udp.port", -1),
+                Integer.getInteger("heartbeat.ingest.max.streams", PcmSocketServer.DEFAULT_MAX_STREAMS), bandPassFilter, metrics, AnalysisScheduler.shared(),
+                new PcmSocketServer.Listener() {
+                    @Override
+                    public void streamOpened(LivePipeline pipeline) {
+                        tasks.execute(() -> {
+                            try {
+                                pipeline.trendTo(TrendStore.sourceDir(TrendStore.defaultRoot(), pipeline.getName()));
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        });
+                        SwingUtilities.invokeLater(() -> {
+                            // If the session was stopped meanwhile, streamClosed stops it as the server closes
+                            if (ingestServer != null) {
+                                addMonitor(pipeline);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void streamClosed(LivePipeline pipeline) {
+                        // The tile stays, marked ended, until the session is stopped. Queued behind the
+                        // stream's own trendTo, so a sender reconnecting under the same name finds its
+                        // trend history closed again.
+                        tasks.execute(pipeline::stop);
+                    }
+                });
+        ingestServer.start();
+        startSession();
     }
 
-    private void startRealTimeGraphing() {
-        if (!isRealTimeGraphing) {
+    // Detaches the ingest server on the EDT, so no new stream gets a tile, and returns what closes
+    // it and waits for its queued stream work; null if not listening. Run before the pipelines are
+    // stopped, so none is pushed to after.
+    private Runnable detachIngest() {
+        if (ingestServer == null) {
+            return null;
+        }
+        PcmSocketServer server = ingestServer;
+        ExecutorService tasks = streamTasks;
+        ingestServer = null;
+        streamTasks = null;
+        return () -> {
             try {
-                AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, SAMPLE_RATE, 16, 1, 2, SAMPLE_RATE, false);
-                DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
-                line = (TargetDataLine) AudioSystem.getLine(info);
-                line.open(format, BUFFER_SIZE);
-                line.start();
-
-                isRealTimeGraphing = true;
-
-                new Thread(() -> {
-                    while (isRealTimeGraphing) {
-                        line.read(audioBuffer, 0, BUFFER_SIZE);
-                        processAudioData();
-                        detectPeaks();
-                        calculateBPM();
-                        calculateHRV();
-                        repaint();
-                        try {
-                            Thread.sleep(UPDATE_INTERVAL_MS);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }).start();
-            } catch (LineUnavailableException e) {
+                server.close();
+            } catch (IOException e) {
                 e.printStackTrace();
             }
-        }
+            tasks.shutdown();
+            try {
+                tasks.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
     }
 
+    // Stopping joins capture threads, drains the rings and closes recordings and trend stores, so it
+    // runs off the EDT; the tiles are refreshed, showing the final snapshots, once every pipeline is done.
     private void stopRealTimeGraphing() {
         if (isRealTimeGraphing) {
-            line.stop();
-            line.close();
+            displayTimer.stop();
             isRealTimeGraphing = false;
+            Runnable ingestStop = detachIngest();
+            stopMonitors(new ArrayList<>(monitors), ingestStop, this::updateMonitors);
+        }
+    }
+
+    private void updateMonitors() {
+        long bytes = 0;
+        for (int i = 0; i < monitors.size(); i++) {
+            Rectangle tile = tileBounds(i, monitors.size(), graphPanel.getWidth(), graphPanel.getHeight());
+            LiveMonitor monitor = monitors.get(i);
+            monitor.update(tile.width, tile.height);
+            bytes += monitor.getSnapshot().getSamples().length * 8L;
+        }
+        metrics.setAudioDataBytes(bytes);
+        repaint();
+    }
+
+    private void clearMonitors() {
+        List<LiveMonitor> cleared = new ArrayList<>(monitors);
+        monitors.clear();
+        stopMonitors(cleared, null, null);
+    }
+
+    // On a background thread: runs first (if any), then stops every monitor at once, each on its own
+    // thread, and finally queues done (if any) on the EDT.
+    private static void stopMonitors(List<LiveMonitor> stopping, Runnable first, Runnable done) {
+        Thread stopper = new Thread(() -> {
+            if (first != null) {
+                first.run();
+            }
+            List<Thread> threads = new ArrayList<>();
+            for (LiveMonitor monitor : stopping) {
+                Thread thread = new Thread(monitor::stop, "stop-" + monitor.getPipeline().getName());
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (done != null) {
+                SwingUtilities.invokeLater(done);
+            }
+        }, "stop-monitors");
+        stopper.start();
+    }
+
+    // Near-square grid, filled row by row; a single source gets the whole panel.
+    private static Rectangle tileBounds(int index, int count, int width, int height) {
+        int columns = (int) Math.ceil(Math.sqrt(count));
+        int rows = (count + columns - 1) / columns;
+        int tileWidth = width / columns;
+        int tileHeight = height / rows;
+        int gap = count > 1 ? 2 : 0;
+        return new Rectangle((index % columns) * tileWidth, (index / columns) * tileHeight,
+                Math.max(1, tileWidth - gap), Math.max(1, tileHeight - gap));
+    }
+
+    private void drawMonitors(Graphics g, int width, int height) {
+        for (int i = 0; i < monitors.size(); i++) {
+            Rectangle tile = tileBounds(i, monitors.size(), width, height);
+            Graphics tileGraphics = g.create(tile.x, tile.y, tile.width, tile.height);
+            monitors.get(i).paint(tileGraphics, tile.width, tile.height);
+            tileGraphics.dispose();
+        }
+    }
+
+    private void closeMappedWav() {
+        if (mappedWav != null) {
+            try {
+                mappedWav.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mappedWav = null;
         }
     }
 
     private void clearGraph() {
+        fileRun++;
         audioData = null;
+        pyramid = null;
+        closeMappedWav();
+        viewport.reset(0);
         peakIndices.clear();
         peakTimes.clear();
         bpm = 0;
-        hrv = 0;
+        fftBpm = 0;
+        fftConfidence = 0;
+        sdnn = 0;
+        rmssd = 0;
+        pnn50 = 0;
+        if (!isRealTimeGraphing) {
+            clearMonitors();
+        }
+        metrics.setAudioDataBytes(0);
         isFileProcessing = false;
         repaint();
     }
 
     private void saveGraph() {
-        if (audioData != null) {
+        if (isFileProcessing && pyramid != null) {
+            exportRecording();
+            return;
+        }
+        if (audioData != null || !monitors.isEmpty()) {
             try {
                 JFileChooser fileChooser = new JFileChooser();
                 int result = fileChooser.showSaveDialog(parentFrame);
@@ -260,11 +540,22 @@ public class RealTimeHeartbeatGrapher extends JPanel {
                         fileName += ".png";
                     }
 
-                    Dimension size = graphPanel.getSize();
-                    BufferedImage image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
-                    Graphics2D g2 = image.createGraphics();
-                    graphPanel.paint(g2);
-                    g2.dispose();
+                    BufferedImage image = null;
+                    BufferedImage chart = monitors.size() == 1 ? monitors.get(0).getImage() : null;
+                    if (chart != null) {
+                        // The strip chart's back buffer is reused for the next frame, so the text goes on a copy
+                        image = new BufferedImage(chart.getWidth(), chart.getHeight(), BufferedImage.TYPE_INT_RGB);
+                        Graphics2D g2 = image.createGraphics();
+                        g2.drawImage(chart, 0, 0, null);
+                        monitors.get(0).paintOverlay(g2, chart.getHeight());
+                        g2.dispose();
+                    } else {
+                        Dimension size = graphPanel.getSize();
+                        image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+                        Graphics2D g2 = image.createGraphics();
+                        paintGraph(g2);
+                        g2.dispose();
+                    }
 
                     File outputFile = new File(fileName);
                     ImageIO.write(image, "png", outputFile);
@@ -275,71 +566,102 @@ public class RealTimeHeartbeatGrapher extends JPanel {
         }
     }
 
-    private void processAudioData() {
-        audioData = new double[audioBuffer.length / 2];
-        for (int i = 0; i < audioData.length; i++) {
-            short sample = ByteBuffer.wrap(audioBuffer, i * 2, 2).getShort();
-            audioData[i] = sample;
+    // The whole recording at a chosen resolution rather than what fits the panel; .svg for vector
+    // output, otherwise PNG. Rendered off the event thread.
+    private void exportRecording() {
+        String pps = JOptionPane.showInputDialog(parentFrame, "Pixels per second:", String.valueOf((int) TiledExporter.DEFAULT_PIXELS_PER_SECOND));
+        if (pps == null) {
+            return;
         }
-    }
-
-    private void detectPeaks() {
-        long currentTime = System.currentTimeMillis();
-        for (double sample : audioData) {
-            if (sample > THRESHOLD) {
-                if (peakTimes.isEmpty() || currentTime - peakTimes.get(peakTimes.size() - 1) > 400) {
-                    peakTimes.add(currentTime);
+        double pixelsPerSecond;
+        try {
+            pixelsPerSecond = Double.parseDouble(pps.trim());
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(parentFrame, "Not a number: " + pps);
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        if (fileChooser.showSaveDialog(parentFrame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        String fileName = fileChooser.getSelectedFile().getAbsolutePath();
+        boolean svg = fileName.toLowerCase().endsWith(".svg");
+        if (!svg && !fileName.toLowerCase().endsWith(".png")) {
+            fileName += ".png";
+        }
+        File outputFile = new File(fileName);
+        TiledExporter exporter = new TiledExporter(pyramid, peakIndices, RecordingAnalyzer.SAMPLE_RATE);
+        exporter.setSamples(mappedWav);
+        exporter.setAnnotations(TiledExporter.summary(bpm, fftBpm, fftConfidence, sdnn, rmssd, pnn50));
+        new Thread(() -> {
+            try {
+                if (svg) {
+                    exporter.writeSvg(outputFile, pixelsPerSecond, TiledExporter.DEFAULT_HEIGHT);
+                } else {
+                    exporter.writePng(outputFile, pixelsPerSecond, TiledExporter.DEFAULT_HEIGHT);
                 }
+            } catch (IOException | IllegalArgumentException ex) {
+                ex.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(parentFrame, "Export failed: " + ex.getMessage()));
             }
-        }
+        }, "heartbeat-export").start();
     }
 
-    private void calculateBPM() {
-        long currentTime = System.currentTimeMillis();
-    
-        // Remove peaks older than 60 seconds
-        peakTimes.removeIf(time -> currentTime - time > 60000);
-    
-        if (peakTimes.size() >= 2) {
-            long timeSpan = peakTimes.get(peakTimes.size() - 1) - peakTimes.get(0);
-            double averageInterval = (double) timeSpan / (peakTimes.size() - 1);
-            bpm = 60000 / averageInterval;
-        } else {
-            // Reset BPM to 0 if there are no recent peaks
-            bpm = 0;
+    // Files are drawn from the min/max pyramid at a cost of at most one line per pixel column.
+    // Live sources are drawn per tile by drawMonitors.
+    private void drawWaveform(Graphics g, int width, int height) {
+        MinMaxPyramid currentPyramid = pyramid;
+        double[] currentData = audioData;
+        if (isFileProcessing && currentPyramid != null) {
+            long from = viewport.getStart();
+            long to = viewport.getEnd();
+            int rawCount = -1;
+            g.setColor(Color.WHITE);
+            if ((to - from) / (double) width < MinMaxPyramid.BASE_BUCKET) {
+                // Zoomed in past the finest pyramid level: decode just the visible samples
+                rawCount = readVisibleSamples(from, (int) (to - from));
+            }
+            if (rawCount >= 0) {
+                WaveformRenderer.drawSamples(g, viewSamples, rawCount, width, height, 0.4);
+            } else {
+                WaveformRenderer.drawPyramid(g, currentPyramid, from, to, width, height, 0.4);
+            }
+            double[] visible = viewSamples;
+            int visibleCount = rawCount;
+            g.setColor(Color.RED);
+            WaveformRenderer.drawPeaks(g, peakIndices, from, to, width, height, 0.4,
+                    i -> i - from < visibleCount ? visible[(int) (i - from)] : currentPyramid.peakValue(i));
+        } else if (currentData != null) {
+            g.setColor(Color.WHITE);
+            WaveformRenderer.drawSamples(g, currentData, width, height, 0.4);
         }
     }
 
-
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        if (audioData != null) {
-            int width = getWidth();
-            int height = getHeight();
-            g.setColor(Color.WHITE);
-            int lastX = 0, lastY = height / 2;
-            for (int i = 0; i < audioData.length; i++) {
-                int x = i * width / audioData.length;
-                int y = height / 2 + (int) (audioData[i] * height / Short.MAX_VALUE * 0.4);
-                g.drawLine(lastX, lastY, x, y);
-                lastX = x;
-                lastY = y;
-            }
-
-            if (isFileProcessing) {
-                g.setColor(Color.RED);
-                for (int peakIndex : peakIndices) {
-                    int x = peakIndex * width / audioData.length;
-                    int y = height / 2 + (int) (audioData[peakIndex] * height / Short.MAX_VALUE * 0.4);
-                    g.fillOval(x - 3, y - 3, 6, 6);
-                }
-            }
-        }
+        drawWaveform(g, getWidth(), getHeight());
         g.setColor(Color.RED);
         g.setFont(new Font("Arial", Font.BOLD, 20));
-        g.drawString("BPM: " + (int) bpm, 10, 30);
-        g.drawString("HRV: " + (int) hrv + " ms", 10, 60);
+        g.drawString("BPM: " + (int) bpm + "   FFT: " + (int) fftBpm + " (" + (int) (fftConfidence * 100) + "%)", 10, 30);
+        g.drawString("HRV: SDNN " + (int) sdnn + " ms, RMSSD " + (int) rmssd + " ms, pNN50 " + (int) pnn50 + "%", 10, 60);
+    }
+
+    // Raw samples [from, from + count) into viewSamples, or -1 if they are not available.
+    private int readVisibleSamples(long from, int count) {
+        if (viewSamples.length < count) {
+            viewSamples = new double[count];
+        }
+        if (mappedWav != null) {
+            return mappedWav.read(from, count, viewSamples);
+        }
+        double[] currentData = audioData;
+        if (currentData != null) {
+            int n = (int) Math.max(0, Math.min(count, currentData.length - from));
+            System.arraycopy(currentData, (int) from, viewSamples, 0, n);
+            return n;
+        }
+        return -1;
     }
 
     public static void main(String[] args) {
@@ -353,5 +675,3 @@ public class RealTimeHeartbeatGrapher extends JPanel {
         });
     }
 }
-
-
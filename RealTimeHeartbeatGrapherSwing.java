@@ -1,9 +1,6 @@
 import javax.sound.sampled.*;
 import javax.swing.*;
 import java.awt.*;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
 
 public class RealTimeHeartbeatGrapherSwing extends JPanel {
 
@@ -13,8 +10,9 @@ public class RealTimeHeartbeatGrapherSwing extends JPanel {
     private static final double THRESHOLD = 1000.0; // Adjust this threshold as needed
 
     private byte[] audioBuffer = new byte[BUFFER_SIZE];
+    private PcmDecoder decoder;
     private double[] audioData;
-    private List<Long> peakTimes = new ArrayList<>();
+    private final PeakStore peakTimes = new PeakStore();
     private double bpm = 0;
 
     public RealTimeHeartbeatGrapherSwing() {
@@ -26,6 +24,7 @@ public class RealTimeHeartbeatGrapherSwing extends JPanel {
             AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, SAMPLE_RATE, 16, 1, 2, SAMPLE_RATE, false);
             DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
             TargetDataLine line = (TargetDataLine) AudioSystem.getLine(info);
+            decoder = new PcmDecoder(format);
             line.open(format, BUFFER_SIZE);
             line.start();
 
@@ -51,19 +50,19 @@ public class RealTimeHeartbeatGrapherSwing extends JPanel {
     }
 
     private void processAudioData() {
-        // Convert bytes to double array
-        audioData = new double[audioBuffer.length / 2];
-        for (int i = 0; i < audioData.length; i++) {
-            short sample = ByteBuffer.wrap(audioBuffer, i * 2, 2).getShort();
-            audioData[i] = sample;
+        // Decode into the same array every tick instead of allocating a new one
+        int frames = BUFFER_SIZE / decoder.getFrameSize();
+        if (audioData == null || audioData.length != frames) {
+            audioData = new double[frames];
         }
+        decoder.decode(audioBuffer, 0, BUFFER_SIZE, audioData, 0);
     }
 
     private void detectPeaks() {
         long currentTime = System.currentTimeMillis();
         for (double sample : audioData) {
             if (sample > THRESHOLD) {
-                if (peakTimes.isEmpty() || currentTime - peakTimes.get(peakTimes.size() - 1) > 600) {
+                if (peakTimes.isEmpty() || currentTime - peakTimes.last() > 600) {
                     peakTimes.add(currentTime);
                 }
             }
@@ -74,12 +73,10 @@ public class RealTimeHeartbeatGrapherSwing extends JPanel {
         if (peakTimes.size() < 2) return;
         
         long currentTime = System.currentTimeMillis();
-        peakTimes.removeIf(time -> currentTime - time > 60000); // Remove peaks older than 1 minute
+        peakTimes.expireBefore(currentTime - 60000); // Remove peaks older than 1 minute
 
         if (peakTimes.size() >= 2) {
-            long timeSpan = peakTimes.get(peakTimes.size() - 1) - peakTimes.get(0);
-            double averageInterval = (double) timeSpan / (peakTimes.size() - 1);
-            bpm = 60000 / averageInterval;
+            bpm = peakTimes.bpm(60000);
         }
     }
 
@@ -91,14 +88,7 @@ public class RealTimeHeartbeatGrapherSwing extends JPanel {
             int width = getWidth();
             int height = getHeight();
             g.setColor(Color.BLACK);
-            int lastX = 0, lastY = height / 2;
-            for (int i = 0; i < audioData.length; i++) {
-                int x = i * width / audioData.length;
-                int y = height / 2 + (int) (audioData[i] * height / Short.MAX_VALUE * 0.4);
-                g.drawLine(lastX, lastY, x, y);
-                lastX = x;
-                lastY = y;
-            }
+            WaveformRenderer.drawSamples(g, audioData, width, height, 0.4);
         }
         // Draw the BPM
         g.setColor(Color.RED);
@@ -0,0 +1,595 @@
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+// The file-mode pipeline (decode -> detectPeaksFromFile -> calculateBPMFromFile -> calculateHRV)
+// without any Swing or AWT dependency, so the grapher and the headless batch runner share it.
+// The periodicity-based FFT estimate is computed over the same detection signal alongside.
+// Recordings can be held as double[], float[] or short[] (Storage); the compact arrays run the
+// global-threshold scan through SampleKernels and convert chunk by chunk for the recursive filters.
+public class RecordingAnalyzer {
+
+    public static final int SAMPLE_RATE = 44100;
+    private static final double THRESHOLD_MULTIPLIER = 2.5;
+    private static final int MIN_PEAK_DISTANCE = 7500;
+    private static final int ADAPTIVE_WINDOW = 3 * SAMPLE_RATE; // Sliding window for the adaptive threshold
+    private static final long PROGRESS_INTERVAL_NANOS = 100_000_000; // at most ten progress calls a second
+    private static final long STREAMING_THRESHOLD_FRAMES = 5L * 60 * SAMPLE_RATE; // Longer files are not kept in memory
+    private static final double FFT_HOP_S = 5; // Half an FFT window
+    private static final int ENVELOPE_CHUNK = 4096; // FFT envelope values per rectifiedMeans call
+
+    // How a loaded recording is held. float is exact for 16-bit sources; short rounds wider ones to
+    // the nearest 16-bit step. Smaller samples also raise the length loaded whole instead of streamed.
+    public enum Storage {
+        DOUBLE(8), FLOAT(4), SHORT(2);
+
+        private final int bytesPerSample;
+
+        Storage(int bytesPerSample) {
+            this.bytesPerSample = bytesPerSample;
+        }
+
+        public long getMaxLoadedFrames() {
+            return STREAMING_THRESHOLD_FRAMES * 8 / bytesPerSample;
+        }
+
+        public static Storage parse(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+
+        // -Dheartbeat.samples=double|float|short, default double.
+        public static Storage fromProperty() {
+            return parse(System.getProperty("heartbeat.samples", "double"));
+        }
+    }
+
+    // A decoded recording in one of the storage types.
+    public static final class Samples {
+        private final double[] doubles;
+        private final float[] floats;
+        private final short[] shorts;
+
+        private Samples(double[] doubles, float[] floats, short[] shorts) {
+            this.doubles = doubles;
+            this.floats = floats;
+            this.shorts = shorts;
+        }
+
+        public int length() {
+            return doubles != null ? doubles.length : floats != null ? floats.length : shorts.length;
+        }
+    }
+
+    // Copies count samples starting at from into dst as doubles.
+    private interface SampleCopier {
+        void copy(int from, int count, double[] dst);
+    }
+
+    // One of the rectifiedMeans kernels bound to its array, writing from out[0].
+    private interface EnvelopeKernel {
+        void rectifiedMeans(int first, int groups, int decimation, double[] out);
+    }
+
+    // Called from the analysing thread while a recording is streamed, at most every 100 ms.
+    public interface ProgressListener {
+        void onProgress(long samplesRead, double runningBpm);
+    }
+
+    private final boolean adaptiveThreshold;
+    private final boolean bandPassFilter;
+    private final boolean keepWaveform;
+    private final ForkJoinPool pool;
+    private ProgressListener progressListener;
+    private Storage storage = Storage.fromProperty();
+    private boolean liveBeatRule = false;
+    private AnalysisCache cache;
+
+    private double[] audioData;
+    private double[] signal; // what detection runs on: audioData, or its envelope when filtering
+    private SignalStage stage;
+    private MinMaxPyramid pyramid;
+    private long sampleCount = 0;
+    private PeakStore peakTimes = new PeakStore();
+    private PeakStore peakIndices = new PeakStore();
+    private double bpm = 0;
+    private double sdnn = 0;
+    private double rmssd = 0;
+    private double pnn50 = 0;
+    private double fftBpm = 0;
+    private double fftConfidence = 0;
+
+    // keepWaveform controls whether the samples and display pyramid are kept after analysis.
+    public RecordingAnalyzer(boolean adaptiveThreshold, boolean bandPassFilter, boolean keepWaveform, ForkJoinPool pool) {
+        this.adaptiveThreshold = adaptiveThreshold;
+        this.bandPassFilter = bandPassFilter;
+        this.keepWaveform = keepWaveform;
+        this.pool = pool;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public void setStorage(Storage storage) {
+        this.storage = storage;
+    }
+
+    // Detect beats with the live pipeline's fixed threshold and refractory gap instead of file mode's
+    // threshold, so a replay of the recording can be compared with its analysis like for like.
+    public void setLiveBeatRule(boolean liveBeatRule) {
+        this.liveBeatRule = liveBeatRule;
+    }
+
+    // With a cache, reopened recordings skip decoding and analysis; the waveform is then only
+    // available through the pyramid.
+    public void setCache(AnalysisCache cache) {
+        this.cache = cache;
+    }
+
+    public void processWavFile(File file) throws UnsupportedAudioFileException, IOException {
+        if (cache != null && keepWaveform && loadFromCache(file)) {
+            return;
+        }
+        Samples samples = load(file, storage);
+        if (samples != null) {
+            analyze(samples);
+        } else {
+            processWavFileStreaming(file);
+        }
+        if (cache != null && pyramid != null) {
+            cache.store(file, getCacheParams(), new AnalysisCache.Entry(sampleCount, bpm, sdnn, rmssd, pnn50,
+                    fftBpm, fftConfidence, peakIndices, pyramid));
+        }
+    }
+
+    private boolean loadFromCache(File file) {
+        AnalysisCache.Entry entry = cache.load(file, getCacheParams());
+        if (entry == null) {
+            return false;
+        }
+        audioData = null;
+        pyramid = entry.getPyramid();
+        sampleCount = entry.getSampleCount();
+        peakIndices = entry.getPeakIndices();
+        peakTimes = new PeakStore(peakIndices.size());
+        for (int i = 0; i < peakIndices.size(); i++) {
+            peakTimes.add(peakIndices.get(i) * 1000 / SAMPLE_RATE);
+        }
+        bpm = entry.getBpm();
+        sdnn = entry.getSdnn();
+        rmssd = entry.getRmssd();
+        pnn50 = entry.getPnn50();
+        fftBpm = entry.getFftBpm();
+        fftConfidence = entry.getFftConfidence();
+        return true;
+    }
+
+    // Everything that changes the result of an analysis of the same samples.
+    private String getCacheParams() {
+        return (liveBeatRule ? "live" : adaptiveThreshold ? "adaptive" : "global") + "-" + (bandPassFilter ? "bandpass" : "raw")
+                + (storage != Storage.DOUBLE ? "-" + storage.name().toLowerCase(Locale.ROOT) : "");
+    }
+
+    // Reads a short recording into one header-sized array, or returns null if it should be streamed.
+    public static double[] load(File file) throws UnsupportedAudioFileException, IOException {
+        try (WavChunkReader reader = new WavChunkReader(file)) {
+            long frameLength = reader.getFrameLength();
+            if (frameLength == AudioSystem.NOT_SPECIFIED || frameLength > STREAMING_THRESHOLD_FRAMES) {
+                return null;
+            }
+            double[] data = new double[(int) frameLength];
+            reader.forEachChunk((samples, count, firstFrame) ->
+                    System.arraycopy(samples, 0, data, (int) firstFrame, count));
+            return data;
+        }
+    }
+
+    // Like load(File), in the given storage type.
+    public static Samples load(File file, Storage storage) throws UnsupportedAudioFileException, IOException {
+        if (storage == Storage.DOUBLE) {
+            double[] data = load(file);
+            return data != null ? new Samples(data, null, null) : null;
+        }
+        try (WavChunkReader reader = new WavChunkReader(file)) {
+            long frameLength = reader.getFrameLength();
+            if (frameLength == AudioSystem.NOT_SPECIFIED || frameLength > storage.getMaxLoadedFrames()) {
+                return null;
+            }
+            if (storage == Storage.FLOAT) {
+                float[] data = new float[(int) frameLength];
+                reader.forEachChunk((samples, count, firstFrame) -> {
+                    for (int k = 0; k < count; k++) {
+                        data[(int) firstFrame + k] = (float) samples[k];
+                    }
+                });
+                return new Samples(null, data, null);
+            }
+            short[] data = new short[(int) frameLength];
+            reader.forEachChunk((samples, count, firstFrame) -> {
+                for (int k = 0; k < count; k++) {
+                    data[(int) firstFrame + k] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(samples[k])));
+                }
+            });
+            return new Samples(null, null, data);
+        }
+    }
+
+    public void analyze(Samples samples) {
+        if (samples.doubles != null) {
+            analyze(samples.doubles);
+        } else if (samples.floats != null) {
+            analyze(samples.floats);
+        } else {
+            analyze(samples.shorts);
+        }
+    }
+
+    public void analyze(double[] data) {
+        audioData = data;
+        sampleCount = data.length;
+        if (keepWaveform) {
+            pyramid = MinMaxPyramid.build(data);
+        }
+        signal = data;
+        stage = null;
+        if (bandPassFilter) {
+            stage = new HeartSoundEnvelope(SAMPLE_RATE);
+            double[] envelope = new double[stage.maxOutput(data.length)];
+            signal = Arrays.copyOf(envelope, stage.process(data, 0, data.length, envelope, 0));
+        }
+        analyzeSignal();
+        if (!keepWaveform) {
+            audioData = null;
+        }
+    }
+
+    // The waveform is only kept as the pyramid; getAudioData() returns null afterwards.
+    public void analyze(float[] data) {
+        analyzeCompact(data.length, () -> MinMaxPyramid.build(data),
+                (from, count, dst) -> {
+                    for (int k = 0; k < count; k++) {
+                        dst[k] = data[from + k];
+                    }
+                },
+                () -> ParallelPeakDetector.detectPeaks(pool, data,
+                        ParallelPeakDetector.calculateThreshold(pool, data, THRESHOLD_MULTIPLIER), MIN_PEAK_DISTANCE),
+                (first, groups, decimation, out) -> Kernels.get().rectifiedMeans(data, first, groups, decimation, out, 0));
+    }
+
+    public void analyze(short[] data) {
+        analyzeCompact(data.length, () -> MinMaxPyramid.build(data),
+                (from, count, dst) -> {
+                    for (int k = 0; k < count; k++) {
+                        dst[k] = data[from + k];
+                    }
+                },
+                () -> ParallelPeakDetector.detectPeaks(pool, data,
+                        ParallelPeakDetector.calculateThreshold(pool, data, THRESHOLD_MULTIPLIER), MIN_PEAK_DISTANCE),
+                (first, groups, decimation, out) -> Kernels.get().rectifiedMeans(data, first, groups, decimation, out, 0));
+    }
+
+    // analyze for a float[] or short[] recording, given its storage-specific steps: the pyramid, the
+    // chunked copy for the recursive filters, the global-threshold peaks and the FFT envelope kernel.
+    private void analyzeCompact(int length, Supplier<MinMaxPyramid> pyramidBuilder, SampleCopier copier,
+                                Supplier<PeakStore> globalThresholdPeaks, EnvelopeKernel envelopeKernel) {
+        beginCompact(length);
+        if (keepWaveform) {
+            pyramid = pyramidBuilder.get();
+        }
+        if (bandPassFilter || adaptiveThreshold || liveBeatRule) {
+            analyzeChunks(length, copier);
+            return;
+        }
+        addPeaks(globalThresholdPeaks.get());
+        FftBpmEstimator estimator = newFftEstimator();
+        int decimation = estimator.getDecimation();
+        double[] envelope = new double[ENVELOPE_CHUNK];
+        for (int first = 0; first + decimation <= length; first += ENVELOPE_CHUNK * decimation) {
+            int groups = Math.min(ENVELOPE_CHUNK, (length - first) / decimation);
+            envelopeKernel.rectifiedMeans(first, groups, decimation, envelope);
+            estimator.addEnvelope(envelope, 0, groups);
+        }
+        finishCompact(estimator);
+    }
+
+    private void beginCompact(int length) {
+        audioData = null;
+        sampleCount = length;
+        stage = null;
+        peakIndices.clear();
+        peakTimes.clear();
+    }
+
+    // The band-pass envelope and the adaptive threshold are recursive, so they stay scalar over
+    // doubles: the samples are converted one chunk at a time, and only the decimated envelope is
+    // held whole. Peaks match the double[] path exactly when the samples are the same values.
+    private void analyzeChunks(int length, SampleCopier copier) {
+        double[] chunk = new double[WavChunkReader.CHUNK_FRAMES];
+        if (bandPassFilter) {
+            stage = new HeartSoundEnvelope(SAMPLE_RATE);
+            double[] envelope = new double[stage.maxOutput(length)];
+            int produced = 0;
+            for (int from = 0; from < length; from += chunk.length) {
+                int count = Math.min(chunk.length, length - from);
+                copier.copy(from, count, chunk);
+                produced += stage.process(chunk, 0, count, envelope, produced);
+            }
+            signal = Arrays.copyOf(envelope, produced);
+            analyzeSignal();
+            return;
+        }
+        StreamingPeakDetector detector = newSinglePassDetector(1);
+        FftBpmEstimator estimator = newFftEstimator();
+        for (int from = 0; from < length; from += chunk.length) {
+            int count = Math.min(chunk.length, length - from);
+            copier.copy(from, count, chunk);
+            detector.accept(chunk, 0, count);
+            estimator.add(chunk, 0, count);
+        }
+        addPeaks(detector.getPeakIndices());
+        finishCompact(estimator);
+    }
+
+    private void finishCompact(FftBpmEstimator estimator) {
+        calculateBPMFromFile();
+        calculateHRV();
+        setFftResult(estimator);
+    }
+
+    // Detection, BPM, HRV and the FFT estimate over signal, which is then released.
+    private void analyzeSignal() {
+        detectPeaksFromFile();
+        calculateBPMFromFile();
+        calculateHRV();
+        FftBpmEstimator estimator = newFftEstimator();
+        estimator.add(signal, 0, signal.length);
+        setFftResult(estimator);
+        signal = null;
+    }
+
+    // Long recordings are analysed in streaming passes with bounded memory: threshold then peaks,
+    // or a single fused pass when the adaptive threshold is selected.
+    public void processWavFileStreaming(File file) throws UnsupportedAudioFileException, IOException {
+        stage = bandPassFilter ? new HeartSoundEnvelope(SAMPLE_RATE) : null;
+        double[] envelope = stage != null ? new double[stage.maxOutput(WavChunkReader.CHUNK_FRAMES)] : null;
+        int scale = stage != null ? stage.getDecimation() : 1;
+
+        StreamingPeakDetector detector;
+        if (adaptiveThreshold || liveBeatRule) {
+            detector = newSinglePassDetector(scale);
+        } else {
+            SignalStats stats = new SignalStats();
+            try (WavChunkReader reader = new WavChunkReader(file)) {
+                reader.forEachChunk((samples, count, firstFrame) -> {
+                    if (stage != null) {
+                        stats.add(envelope, 0, stage.process(samples, 0, count, envelope, 0));
+                    } else {
+                        stats.add(samples, 0, count);
+                    }
+                });
+            }
+            if (stage != null) {
+                stage.reset();
+            }
+            double threshold = stats.getMean() + THRESHOLD_MULTIPLIER * stats.getStd();
+            detector = new StreamingPeakDetector(threshold, MIN_PEAK_DISTANCE / scale);
+        }
+        MinMaxPyramid streamedPyramid = keepWaveform ? new MinMaxPyramid() : null;
+        FftBpmEstimator estimator = newFftEstimator();
+        long[] samplesRead = new long[1];
+        long[] lastProgress = {System.nanoTime()};
+        try (WavChunkReader reader = new WavChunkReader(file)) {
+            reader.forEachChunk((samples, count, firstFrame) -> {
+                if (stage != null) {
+                    int produced = stage.process(samples, 0, count, envelope, 0);
+                    detector.accept(envelope, 0, produced);
+                    estimator.add(envelope, 0, produced);
+                } else {
+                    detector.accept(samples, 0, count);
+                    estimator.add(samples, 0, count);
+                }
+                if (streamedPyramid != null) {
+                    streamedPyramid.add(samples, 0, count);
+                }
+                samplesRead[0] += count;
+                if (progressListener != null && System.nanoTime() - lastProgress[0] >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgress[0] = System.nanoTime();
+                    double runningBpm = detector.getPeakIndices().size() / (samplesRead[0] / (double) SAMPLE_RATE) * 60;
+                    progressListener.onProgress(samplesRead[0], runningBpm);
+                }
+            });
+        }
+
+        if (streamedPyramid != null) {
+            streamedPyramid.finish();
+        }
+        audioData = null;
+        pyramid = streamedPyramid;
+        sampleCount = samplesRead[0];
+        peakIndices.clear();
+        peakTimes.clear();
+        addPeaks(detector.getPeakIndices());
+        calculateBPMFromFile();
+        calculateHRV();
+        setFftResult(estimator);
+    }
+
+    // detectPeaksFromFile over raw samples, as analyze runs it; also driven directly by the benchmarks.
+    PeakStore detectPeaks(double[] data) {
+        sampleCount = data.length;
+        signal = data;
+        stage = null;
+        detectPeaksFromFile();
+        signal = null;
+        return peakIndices;
+    }
+
+    private void detectPeaksFromFile() {
+        peakIndices.clear();
+        peakTimes.clear(); // Clear previous peak times
+
+        if (adaptiveThreshold || liveBeatRule) {
+            detectPeaksSinglePass();
+            return;
+        }
+        if (signal.length >= ParallelPeakDetector.MIN_PARALLEL_SAMPLES) {
+            detectPeaksParallel();
+            return;
+        }
+
+        double threshold = calculateThreshold(signal);
+        int minPeakDistance = MIN_PEAK_DISTANCE / getScale();
+        int lastPeakIndex = -minPeakDistance;
+
+        for (int i = 1; i < signal.length - 1; i++) {
+            if (signal[i] > threshold && signal[i] > signal[i - 1] && signal[i] > signal[i + 1]) {
+                if (i - lastPeakIndex >= minPeakDistance) {
+                    addPeak(i);
+                    lastPeakIndex = i;
+                }
+            }
+        }
+    }
+
+    // Same result as the sequential loop, spread over all cores for long recordings.
+    private void detectPeaksParallel() {
+        double threshold = ParallelPeakDetector.calculateThreshold(pool, signal, THRESHOLD_MULTIPLIER);
+        addPeaks(ParallelPeakDetector.detectPeaks(pool, signal, threshold, MIN_PEAK_DISTANCE / getScale()));
+    }
+
+    // One pass over the signal: the sliding-window threshold is updated alongside the local-maximum check,
+    // or the live rule's fixed threshold and refractory gap are applied.
+    private void detectPeaksSinglePass() {
+        StreamingPeakDetector detector = newSinglePassDetector(getScale());
+        detector.accept(signal, 0, signal.length);
+        addPeaks(detector.getPeakIndices());
+    }
+
+    // For the rules that need no threshold pass, over a signal at SAMPLE_RATE / scale.
+    private StreamingPeakDetector newSinglePassDetector(int scale) {
+        if (liveBeatRule) {
+            return LivePipeline.newBeatDetector(SAMPLE_RATE, scale);
+        }
+        return new StreamingPeakDetector(new AdaptiveThreshold(ADAPTIVE_WINDOW / scale, THRESHOLD_MULTIPLIER), MIN_PEAK_DISTANCE / scale);
+    }
+
+    private int getScale() {
+        return stage != null ? stage.getDecimation() : 1;
+    }
+
+    private void addPeaks(PeakStore found) {
+        for (int k = 0; k < found.size(); k++) {
+            addPeak((int) found.get(k));
+        }
+    }
+
+    // Records a peak found at index i of the detection signal, mapped back onto the raw samples.
+    private void addPeak(int i) {
+        int peakIndex = i;
+        if (stage != null) {
+            long raw = (long) (i + 1) * stage.getDecimation() - 1 - stage.getDelay();
+            peakIndex = (int) Math.max(0, Math.min(sampleCount - 1, raw));
+        }
+        peakIndices.add(peakIndex);
+        peakTimes.add((long) peakIndex * 1000 / SAMPLE_RATE); // Convert index to time in milliseconds
+    }
+
+    private double calculateThreshold(double[] data) {
+        double mean = calculateMean(data, 0, data.length - 1);
+        double std = calculateStd(data, mean, 0, data.length - 1);
+        return mean + THRESHOLD_MULTIPLIER * std;
+    }
+
+    // Summed block by block so the parallel detector arrives at exactly the same threshold
+    private double calculateMean(double[] data, int start, int end) {
+        return ParallelPeakDetector.blockedSum(data, start, end + 1) / (end - start + 1);
+    }
+
+    private double calculateStd(double[] data, double mean, int start, int end) {
+        double variance = ParallelPeakDetector.blockedSumSquares(data, mean, start, end + 1) / (end - start + 1);
+        return Math.sqrt(variance);
+    }
+
+    private void calculateBPMFromFile() {
+        if (peakIndices.size() < 2) {
+            bpm = 0;
+            return;
+        }
+
+        double totalTimeInSeconds = sampleCount / (double) SAMPLE_RATE;
+        bpm = (peakIndices.size() / totalTimeInSeconds) * 60;
+    }
+
+    // Runs over the detection signal, so its rate depends on the stage.
+    private FftBpmEstimator newFftEstimator() {
+        return new FftBpmEstimator(stage != null ? SAMPLE_RATE / (double) stage.getDecimation() : SAMPLE_RATE, FFT_HOP_S);
+    }
+
+    // Averaged over every window of the recording rather than the last one.
+    private void setFftResult(FftBpmEstimator estimator) {
+        estimator.flush();
+        fftBpm = estimator.getOverallBpm();
+        fftConfidence = estimator.getOverallConfidence();
+    }
+
+    // RR intervals over the whole recording, from the same engine the live pipeline uses
+    private void calculateHRV() {
+        HrvEngine hrv = new HrvEngine(SAMPLE_RATE, 0);
+        for (int i = 0; i < peakIndices.size(); i++) {
+            hrv.addBeat(peakIndices.get(i));
+        }
+        sdnn = hrv.getSdnn();
+        rmssd = hrv.getRmssd();
+        pnn50 = hrv.getPnn50();
+    }
+
+    public double[] getAudioData() {
+        return audioData;
+    }
+
+    public MinMaxPyramid getPyramid() {
+        return pyramid;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public PeakStore getPeakIndices() {
+        return peakIndices;
+    }
+
+    public PeakStore getPeakTimes() {
+        return peakTimes;
+    }
+
+    public double getBpm() {
+        return bpm;
+    }
+
+    public double getSdnn() {
+        return sdnn;
+    }
+
+    public double getRmssd() {
+        return rmssd;
+    }
+
+    public double getPnn50() {
+        return pnn50;
+    }
+
+    public double getFftBpm() {
+        return fftBpm;
+    }
+
+    // 0..1, see FftBpmEstimator.
+    public double getFftConfidence() {
+        return fftConfidence;
+    }
+}
@@ -0,0 +1,125 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+// Replays a recording as if it were being captured. At speed 1 reads are paced to the file's sample
+// rate, so a pipeline fed from here sees the same block timing as one fed from a line; higher speeds
+// compress that schedule, and speed 0 (MAX_SPEED) returns blocks as fast as the pipeline takes them.
+// A replay is not live, so a pipeline that falls behind holds it back instead of dropping audio.
+public class ReplayCaptureSource implements CaptureSource {
+
+    public static final double MAX_SPEED = 0;
+
+    private final File file;
+    private final double speed;
+    private final AudioFormat format;
+    private AudioInputStream stream;
+    private int frameSize;
+    private long startNanos;
+    private long framesDelivered = 0;
+
+    public ReplayCaptureSource(File file) throws IOException {
+        this(file, 1);
+    }
+
+    public ReplayCaptureSource(File file, double speed) throws IOException {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Negative replay speed: " + speed);
+        }
+        this.file = file;
+        this.speed = speed;
+        try (AudioInputStream probe = AudioSystem.getAudioInputStream(file)) {
+            format = probe.getFormat();
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("Unsupported audio file: " + file, e);
+        }
+        new PcmDecoder(format); // Fail here rather than on the capture thread
+    }
+
+    @Override
+    public String getName() {
+        return file.getName();
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public void open(int bufferBytes) throws IOException {
+        try {
+            stream = AudioSystem.getAudioInputStream(file);
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("Unsupported audio file: " + file, e);
+        }
+        frameSize = new PcmDecoder(format).getFrameSize();
+        startNanos = System.nanoTime();
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        return framesDelivered;
+    }
+
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        int wanted = length / frameSize * frameSize;
+        int filled = 0;
+        try {
+            while (filled < wanted) {
+                int n = stream.read(buffer, offset + filled, wanted - filled);
+                if (n < 0) {
+                    break;
+                }
+                filled += n;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        filled = filled / frameSize * frameSize;
+        if (filled == 0) {
+            return -1;
+        }
+        framesDelivered += filled / frameSize;
+        if (speed == MAX_SPEED) {
+            return filled;
+        }
+        // Hold the block back until a line running at this speed would have delivered its last frame
+        long due = startNanos + (long) (framesDelivered * 1e9 / (format.getFrameRate() * speed));
+        long wait;
+        while ((wait = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+        return filled;
+    }
+
+    @Override
+    public void close() {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
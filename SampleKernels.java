@@ -0,0 +1,37 @@
+// The inner loops of file analysis over compact sample storage: float[] (exact for 16-bit
+// sources, half the memory of double[]) and short[] (raw 16-bit PCM, a quarter). ScalarKernels is
+// the reference; VectorKernels does the same work with jdk.incubator.vector. Kernels.get() picks one.
+//
+// Agreement between implementations and with the double[] path:
+// - float sums accumulate in double. ScalarKernels adds in index order, like ParallelPeakDetector,
+//   so its thresholds are bit-identical; VectorKernels adds lane-wise and differs by rounding only,
+//   within 1e-12 of the summed magnitudes (VectorKernelsTest, run with -Pvector).
+// - short sums are exact long integers in both implementations.
+// - localMaxima compares exactly, so for the same threshold every implementation finds the same
+//   candidates. Peaks can only differ when a sample lies within that rounding of the threshold.
+// - rectifiedMeans is used only for the FFT envelope, where rounding does not matter.
+public interface SampleKernels {
+
+    String getName();
+
+    double sum(float[] data, int from, int to);
+
+    double sumSquares(float[] data, double mean, int from, int to);
+
+    long sum(short[] data, int from, int to);
+
+    // Sum of data[i]^2, not of deviations from the mean: exact in a long.
+    long sumSquares(short[] data, int from, int to);
+
+    // Indices i in [from, to) with data[i] > threshold and greater than both neighbours, in order.
+    // Needs from >= 1 and to <= data.length - 1. Stops when out is full and returns the count, so a
+    // caller resumes from out[count - 1] + 1.
+    int localMaxima(float[] data, int from, int to, float threshold, int[] out);
+
+    int localMaxima(short[] data, int from, int to, int threshold, int[] out);
+
+    // out[outOffset + g] = mean of |data| over the g-th run of decimation samples from from.
+    void rectifiedMeans(float[] data, int from, int groups, int decimation, double[] out, int outOffset);
+
+    void rectifiedMeans(short[] data, int from, int groups, int decimation, double[] out, int outOffset);
+}
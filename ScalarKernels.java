@@ -0,0 +1,91 @@
+// Plain loops, in the same order as the double[] path. Always available.
+public class ScalarKernels implements SampleKernels {
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public double sum(float[] data, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumSquares(float[] data, double mean, int from, int to) {
+        double sumSquares = 0;
+        for (int i = from; i < to; i++) {
+            double d = data[i] - mean;
+            sumSquares += d * d;
+        }
+        return sumSquares;
+    }
+
+    @Override
+    public long sum(short[] data, int from, int to) {
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public long sumSquares(short[] data, int from, int to) {
+        long sumSquares = 0;
+        for (int i = from; i < to; i++) {
+            sumSquares += data[i] * data[i];
+        }
+        return sumSquares;
+    }
+
+    @Override
+    public int localMaxima(float[] data, int from, int to, float threshold, int[] out) {
+        int count = 0;
+        for (int i = from; i < to && count < out.length; i++) {
+            if (data[i] > threshold && data[i] > data[i - 1] && data[i] > data[i + 1]) {
+                out[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int localMaxima(short[] data, int from, int to, int threshold, int[] out) {
+        int count = 0;
+        for (int i = from; i < to && count < out.length; i++) {
+            if (data[i] > threshold && data[i] > data[i - 1] && data[i] > data[i + 1]) {
+                out[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void rectifiedMeans(float[] data, int from, int groups, int decimation, double[] out, int outOffset) {
+        for (int g = 0; g < groups; g++) {
+            double sum = 0;
+            int start = from + g * decimation;
+            for (int i = start; i < start + decimation; i++) {
+                sum += Math.abs(data[i]);
+            }
+            out[outOffset + g] = sum / decimation;
+        }
+    }
+
+    @Override
+    public void rectifiedMeans(short[] data, int from, int groups, int decimation, double[] out, int outOffset) {
+        for (int g = 0; g < groups; g++) {
+            long sum = 0;
+            int start = from + g * decimation;
+            for (int i = start; i < start + decimation; i++) {
+                sum += Math.abs(data[i]);
+            }
+            out[outOffset + g] = sum / (double) decimation;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+// A pre-processing step that runs ahead of peak detection on both the file and live paths.
+// Stages may decimate: every getDecimation() input samples produce one output sample.
+public interface SignalStage {
+
+    // Processes count input samples and returns how many output samples were written.
+    int process(double[] in, int offset, int count, double[] out, int outOffset);
+
+    // Largest output count process() can produce for the given input count.
+    int maxOutput(int count);
+
+    int getDecimation();
+
+    // Input samples by which the output lags the input, used to map peaks back onto the raw signal.
+    int getDelay();
+
+    void reset();
+}
@@ -0,0 +1,28 @@
+// Running mean and standard deviation (Welford), so the threshold can be computed chunk by chunk.
+public class SignalStats {
+
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0;
+
+    public void add(double[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            count++;
+            double delta = data[i] - mean;
+            mean += delta / count;
+            m2 += delta * (data[i] - mean);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getStd() {
+        return count == 0 ? 0 : Math.sqrt(m2 / count);
+    }
+}
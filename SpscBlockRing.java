@@ -0,0 +1,71 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free single-producer/single-consumer ring of preallocated audio blocks.
+// The producer fills a block in place and publishes it; the consumer reads it and releases it.
+// Only the producer writes tail and only the consumer writes head, so ordered (lazySet) stores
+// are enough and nothing on either side ever blocks.
+public class SpscBlockRing {
+
+    public static final class Block {
+        public final byte[] data;
+        public int length;
+        public long startFrame;
+        public long readNanos;
+
+        Block(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private final Block[] blocks;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    public SpscBlockRing(int capacity, int blockSize) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        blocks = new Block[capacity];
+        for (int i = 0; i < capacity; i++) {
+            blocks[i] = new Block(blockSize);
+        }
+        mask = capacity - 1;
+    }
+
+    // Producer: next free block, or null if the consumer has fallen a full ring behind.
+    public Block claim() {
+        long t = tail.get();
+        if (t - head.get() == blocks.length) {
+            return null;
+        }
+        return blocks[(int) (t & mask)];
+    }
+
+    // Producer: makes the claimed block visible to the consumer.
+    public void publish() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    // Consumer: oldest published block, or null if the ring is empty.
+    public Block peek() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        return blocks[(int) (h & mask)];
+    }
+
+    // Consumer: hands the peeked block back to the producer.
+    public void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return blocks.length;
+    }
+}
@@ -0,0 +1,89 @@
+// Same local-maximum rule as detectPeaksFromFile, but fed one chunk at a time.
+// The last two samples are carried over so peaks on a chunk boundary are not missed.
+// With an AdaptiveThreshold the threshold is updated in the same pass as the maximum check.
+// A refractory detector instead takes the first sample over the threshold once the gap since the
+// previous peak has passed, the live pipeline's beat rule.
+public class StreamingPeakDetector {
+
+    private final AdaptiveThreshold adaptiveThreshold;
+    private final boolean localMaximum;
+    private final int minPeakDistance;
+    private final PeakStore peakIndices = new PeakStore();
+
+    private double threshold;
+    private long sampleIndex = 0;
+    private double prev2;
+    private double prev1;
+    private long lastPeakIndex;
+
+    public StreamingPeakDetector(double threshold, int minPeakDistance) {
+        this(null, threshold, true, minPeakDistance);
+    }
+
+    public StreamingPeakDetector(AdaptiveThreshold adaptiveThreshold, int minPeakDistance) {
+        this(adaptiveThreshold, Double.POSITIVE_INFINITY, true, minPeakDistance);
+    }
+
+    private StreamingPeakDetector(AdaptiveThreshold adaptiveThreshold, double threshold, boolean localMaximum, int minPeakDistance) {
+        this.adaptiveThreshold = adaptiveThreshold;
+        this.threshold = threshold;
+        this.localMaximum = localMaximum;
+        this.minPeakDistance = minPeakDistance;
+        this.lastPeakIndex = -minPeakDistance;
+    }
+
+    // Peaks are the first samples over threshold at least minPeakDistance after the previous one.
+    public static StreamingPeakDetector refractory(double threshold, int minPeakDistance) {
+        return new StreamingPeakDetector(null, threshold, false, minPeakDistance);
+    }
+
+    public void accept(double[] samples, int offset, int count) {
+        for (int j = offset; j < offset + count; j++) {
+            double current = samples[j];
+            if (adaptiveThreshold != null) {
+                adaptiveThreshold.add(current);
+                threshold = adaptiveThreshold.getThreshold();
+            }
+            if (!localMaximum) {
+                if (current > threshold && sampleIndex - lastPeakIndex >= minPeakDistance) {
+                    peakIndices.add(sampleIndex);
+                    lastPeakIndex = sampleIndex;
+                }
+            } else if (sampleIndex >= 2) {
+                // sampleIndex - 1 is the candidate; it now has both neighbours
+                long i = sampleIndex - 1;
+                if (prev1 > threshold && prev1 > prev2 && prev1 > current) {
+                    if (i - lastPeakIndex >= minPeakDistance) {
+                        peakIndices.add(i);
+                        lastPeakIndex = i;
+                    }
+                }
+            }
+            prev2 = prev1;
+            prev1 = current;
+            sampleIndex++;
+        }
+    }
+
+    // Starts over at index 0, as after a gap in the signal: nothing carried over is compared with
+    // the samples that follow, and the next peak need not wait out the distance from the last one.
+    public void reset() {
+        if (adaptiveThreshold != null) {
+            adaptiveThreshold.reset();
+            threshold = Double.POSITIVE_INFINITY;
+        }
+        peakIndices.clear();
+        sampleIndex = 0;
+        prev2 = 0;
+        prev1 = 0;
+        lastPeakIndex = -minPeakDistance;
+    }
+
+    public PeakStore getPeakIndices() {
+        return peakIndices;
+    }
+
+    public long getSampleCount() {
+        return sampleIndex;
+    }
+}
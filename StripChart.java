@@ -0,0 +1,123 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+// Scrolling live display over the last historySeconds. The chart keeps an off-screen image;
+// every update shifts it left by the number of finished pixel columns and draws only those, so
+// the cost per frame follows the amount of new audio, not the panel size or the history length.
+// Only used from the event dispatch thread.
+public class StripChart {
+
+    private final int sampleRate;
+    private final double historySeconds;
+    private final Color background;
+    private final Color foreground;
+    private final double gain;
+
+    private BufferedImage image;
+    private int columnsPerPixel;
+    private long nextColumn = -1; // next ring column to consume, -1 to start from the current history
+
+    // The pixel column being accumulated
+    private float pixelMin = Float.POSITIVE_INFINITY;
+    private float pixelMax = Float.NEGATIVE_INFINITY;
+    private int pixelFill = 0;
+
+    // Pixel columns finished during this update, as a ring of the last image-width entries
+    private float[] pendingMin;
+    private float[] pendingMax;
+
+    public StripChart(int sampleRate, double historySeconds, Color background, Color foreground, double gain) {
+        this.sampleRate = sampleRate;
+        this.historySeconds = historySeconds;
+        this.background = background;
+        this.foreground = foreground;
+        this.gain = gain;
+    }
+
+    // Columns the ring must hold for a full history.
+    public static int historyColumns(int sampleRate, double historySeconds) {
+        return (int) Math.ceil(historySeconds * sampleRate / ColumnRing.BUCKET);
+    }
+
+    public void update(ColumnRing ring, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            resize(width, height);
+        }
+        long written = ring.getWritten();
+        if (nextColumn < 0) {
+            // Fresh image: replay the history the ring still holds
+            nextColumn = Math.max(0, written - (long) columnsPerPixel * width);
+        }
+        long from = Math.max(nextColumn, ring.getOldestReadable());
+        int finished = 0;
+        for (long c = from; c < written; c++) {
+            float lo = ring.min(c);
+            float hi = ring.max(c);
+            if (lo < pixelMin) pixelMin = lo;
+            if (hi > pixelMax) pixelMax = hi;
+            if (++pixelFill == columnsPerPixel) {
+                pendingMin[finished % width] = pixelMin;
+                pendingMax[finished % width] = pixelMax;
+                finished++;
+                pixelMin = Float.POSITIVE_INFINITY;
+                pixelMax = Float.NEGATIVE_INFINITY;
+                pixelFill = 0;
+            }
+        }
+        nextColumn = written;
+        if (finished > 0) {
+            scroll(finished, width, height);
+        }
+    }
+
+    private void scroll(int finished, int width, int height) {
+        int n = Math.min(finished, width);
+        Graphics2D g = image.createGraphics();
+        if (n < width) {
+            g.copyArea(n, 0, width - n, height, -n, 0);
+        }
+        g.setColor(background);
+        g.fillRect(width - n, 0, n, height);
+        g.setColor(foreground);
+        for (int i = 0; i < n; i++) {
+            int slot = (finished - n + i) % width;
+            int x = width - n + i;
+            g.drawLine(x, WaveformRenderer.toY(pendingMin[slot], height, gain), x, WaveformRenderer.toY(pendingMax[slot], height, gain));
+        }
+        g.dispose();
+    }
+
+    private void resize(int width, int height) {
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        columnsPerPixel = Math.max(1, (int) Math.round(historyColumns(sampleRate, historySeconds) / (double) width));
+        pendingMin = new float[width];
+        pendingMax = new float[width];
+        pixelMin = Float.POSITIVE_INFINITY;
+        pixelMax = Float.NEGATIVE_INFINITY;
+        pixelFill = 0;
+        nextColumn = -1;
+    }
+
+    public void paint(Graphics g, int width, int height) {
+        if (image != null) {
+            g.drawImage(image, 0, 0, width, height, null);
+        }
+    }
+
+    // The back buffer itself; null until the first update.
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public void clear() {
+        image = null;
+        nextColumn = -1;
+    }
+}
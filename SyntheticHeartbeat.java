@@ -0,0 +1,41 @@
+import java.util.Random;
+
+// Deterministic heart-sound-like test signal: an S1 and a softer S2 burst per beat over Gaussian noise,
+// in the same 16-bit scale the decoder produces.
+public class SyntheticHeartbeat {
+
+    private SyntheticHeartbeat() {
+    }
+
+    public static double[] generate(int sampleRate, double seconds, double bpm, long seed) {
+        int n = (int) Math.min(Integer.MAX_VALUE - 8, (long) (seconds * sampleRate));
+        double[] data = new double[n];
+        Random random = new Random(seed);
+        int period = (int) (sampleRate * 60 / bpm);
+        int s1Length = sampleRate / 110;  // ~9 ms
+        int s2Offset = period * 2 / 5;
+        int s2Length = sampleRate / 150;
+        for (int i = 0; i < n; i++) {
+            int phase = i % period;
+            double v = random.nextGaussian() * 200;
+            if (phase < s1Length) {
+                v += 9000 * Math.sin(phase * Math.PI / s1Length);
+            } else if (phase >= s2Offset && phase < s2Offset + s2Length) {
+                v += 5000 * Math.sin((phase - s2Offset) * Math.PI / s2Length);
+            }
+            data[i] = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
+        }
+        return data;
+    }
+
+    // 16-bit signed little-endian mono PCM, as the capture line delivers it.
+    public static byte[] toPcm16(double[] data) {
+        byte[] pcm = new byte[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            short s = (short) data[i];
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        return pcm;
+    }
+}
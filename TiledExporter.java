@@ -0,0 +1,374 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+// Exports a whole analysed recording at a chosen number of pixels per second, with peak markers,
+// a time axis and the BPM/HRV summary, to PNG or SVG. Image size is not limited by the screen or
+// the heap. The waveform is reduced once to the vertical extent of every pixel column (4 bytes
+// a column). A PNG is then rendered in full-width bands of rows that fit BAND_BYTES and streamed
+// through PngStreamWriter. An SVG writes the columns as one path per TILE_COLUMNS.
+// Past the finest pyramid level the columns come from the mapped samples, when there are any.
+//
+// usage: java TiledExporter [--pps N] [--height N] [--format png|svg] [--out DIR] [--adaptive] [--band-pass] PATH...
+public class TiledExporter {
+
+    public static final double DEFAULT_PIXELS_PER_SECOND = 100;
+    public static final int DEFAULT_HEIGHT = 600;
+    private static final long BAND_BYTES = 16L << 20;
+    private static final int TILE_COLUMNS = 1024;
+    private static final double GAIN = 0.4; // as on screen
+    private static final int MIN_LABEL_SPACING = 100; // pixels between time labels
+    private static final int[] TICK_SECONDS = {1, 2, 5, 10, 15, 30, 60, 120, 300, 600, 900, 1800, 3600};
+
+    private static final Color BACKGROUND = Color.DARK_GRAY;
+    private static final Color WAVEFORM = Color.WHITE;
+    private static final Color PEAKS = Color.RED;
+    private static final Color GRID = new Color(96, 96, 96);
+    private static final Color LABELS = Color.LIGHT_GRAY;
+    private static final Font ANNOTATION_FONT = new Font("Arial", Font.BOLD, 20);
+    private static final Font AXIS_FONT = new Font("Arial", Font.PLAIN, 12);
+
+    private final MinMaxPyramid pyramid;
+    private final PeakStore peakIndices;
+    private final int sampleRate;
+    private MappedWav samples;
+    private String[] annotations = new String[0];
+
+    public TiledExporter(MinMaxPyramid pyramid, PeakStore peakIndices, int sampleRate) {
+        this.pyramid = pyramid;
+        this.peakIndices = peakIndices;
+        this.sampleRate = sampleRate;
+    }
+
+    // Raw samples for exports finer than the pyramid's BASE_BUCKET samples per column.
+    public void setSamples(MappedWav samples) {
+        this.samples = samples;
+    }
+
+    // Lines drawn at the top left, e.g. from summary().
+    public void setAnnotations(String... annotations) {
+        this.annotations = annotations;
+    }
+
+    // The two lines the grapher shows over a recording.
+    public static String[] summary(double bpm, double fftBpm, double fftConfidence, double sdnn, double rmssd, double pnn50) {
+        return new String[] {
+                "BPM: " + (int) bpm + "   FFT: " + (int) fftBpm + " (" + (int) (fftConfidence * 100) + "%)",
+                "HRV: SDNN " + (int) sdnn + " ms, RMSSD " + (int) rmssd + " ms, pNN50 " + (int) pnn50 + "%"
+        };
+    }
+
+    public int getWidth(double pixelsPerSecond) {
+        long width = (long) Math.ceil(pyramid.getSampleCount() * clampPps(pixelsPerSecond) / sampleRate);
+        if (width > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Export would be " + width + " pixels wide; lower the pixels per second");
+        }
+        return (int) Math.max(1, width);
+    }
+
+    // At most one column per sample.
+    private double clampPps(double pixelsPerSecond) {
+        return Math.max(Double.MIN_VALUE, Math.min(sampleRate, pixelsPerSecond));
+    }
+
+    public void writePng(File file, double pixelsPerSecond, int height) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            writePng(out, pixelsPerSecond, height);
+        }
+    }
+
+    // Closes out.
+    public void writePng(OutputStream out, double pixelsPerSecond, int height) throws IOException {
+        int width = getWidth(pixelsPerSecond);
+        short[] extents = columnExtents(width, height);
+        int bandRows = (int) Math.max(1, Math.min(height, BAND_BYTES / (4L * width)));
+        BufferedImage band = new BufferedImage(width, bandRows, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+        int background = BACKGROUND.getRGB() & 0xFFFFFF;
+        int foreground = WAVEFORM.getRGB() & 0xFFFFFF;
+
+        try (PngStreamWriter png = new PngStreamWriter(out, width, height)) {
+            for (int top = 0; top < height; top += bandRows) {
+                int rows = Math.min(bandRows, height - top);
+                int bottom = top + rows - 1;
+                Arrays.fill(pixels, background);
+                for (int x = 0; x < width; x++) {
+                    int from = Math.max(top, extents[2 * x]);
+                    int to = Math.min(bottom, extents[2 * x + 1]);
+                    for (int y = from; y <= to; y++) {
+                        pixels[(y - top) * width + x] = foreground;
+                    }
+                }
+                Graphics2D g = band.createGraphics();
+                g.setClip(0, 0, width, rows);
+                g.translate(0, -top);
+                drawOverlay(g, width, height, top, bottom);
+                g.dispose();
+                png.writeRows(pixels, 0, width, rows);
+            }
+        }
+    }
+
+    // Time grid, peak markers and annotations, skipping what cannot reach rows [top, bottom].
+    private void drawOverlay(Graphics2D g, int width, int height, int top, int bottom) {
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        double pps = width * (double) sampleRate / pyramid.getSampleCount();
+        int tick = tickSeconds(pps);
+        g.setFont(AXIS_FONT);
+        for (int second = tick; second * pps < width; second += tick) {
+            int x = (int) Math.round(second * pps);
+            g.setColor(GRID);
+            g.drawLine(x, 0, x, height - 1);
+            if (bottom >= height - 20) {
+                g.setColor(LABELS);
+                g.drawString(formatTime(second), x + 3, height - 6);
+            }
+        }
+
+        g.setColor(PEAKS);
+        long count = pyramid.getSampleCount();
+        for (int k = 0; k < peakIndices.size(); k++) {
+            long peakIndex = peakIndices.get(k);
+            int y = clampY(WaveformRenderer.toY(pyramid.peakValue(peakIndex), height, GAIN), height);
+            if (y + 3 < top || y - 3 > bottom) {
+                continue;
+            }
+            int x = (int) (peakIndex * width / count);
+            g.fillOval(x - 3, y - 3, 6, 6);
+        }
+
+        if (top < 30 * (annotations.length + 1)) {
+            g.setFont(ANNOTATION_FONT);
+            for (int i = 0; i < annotations.length; i++) {
+                g.drawString(annotations[i], 10, 30 * (i + 1));
+            }
+        }
+    }
+
+    public void writeSvg(File file, double pixelsPerSecond, int height) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            writeSvg(out, pixelsPerSecond, height);
+        }
+    }
+
+    public void writeSvg(Writer out, double pixelsPerSecond, int height) throws IOException {
+        int width = getWidth(pixelsPerSecond);
+        short[] extents = columnExtents(width, height);
+        double pps = width * (double) sampleRate / pyramid.getSampleCount();
+
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write(String.format(Locale.ROOT, "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\" viewBox=\"0 0 %d %d\">%n",
+                width, height, width, height));
+        out.write(String.format(Locale.ROOT, "<rect width=\"%d\" height=\"%d\" fill=\"%s\"/>%n", width, height, hex(BACKGROUND)));
+
+        int tick = tickSeconds(pps);
+        out.write(String.format(Locale.ROOT, "<g stroke=\"%s\" stroke-width=\"1\">%n", hex(GRID)));
+        for (int second = tick; second * pps < width; second += tick) {
+            long x = Math.round(second * pps);
+            out.write(String.format(Locale.ROOT, "<line x1=\"%d.5\" y1=\"0\" x2=\"%d.5\" y2=\"%d\"/>%n", x, x, height));
+        }
+        out.write("</g>\n");
+        out.write(String.format(Locale.ROOT, "<g fill=\"%s\" font-family=\"Arial\" font-size=\"12\">%n", hex(LABELS)));
+        for (int second = tick; second * pps < width; second += tick) {
+            out.write(String.format(Locale.ROOT, "<text x=\"%d\" y=\"%d\">%s</text>%n", Math.round(second * pps) + 3, height - 6, formatTime(second)));
+        }
+        out.write("</g>\n");
+
+        // Each column is a vertical segment; a path per tile keeps elements a manageable size
+        StringBuilder path = new StringBuilder();
+        for (int tile = 0; tile < width; tile += TILE_COLUMNS) {
+            path.setLength(0);
+            for (int x = tile; x < Math.min(width, tile + TILE_COLUMNS); x++) {
+                path.append('M').append(x).append(".5 ").append(extents[2 * x])
+                        .append('V').append(extents[2 * x + 1] + 1);
+            }
+            out.write(String.format(Locale.ROOT, "<path stroke=\"%s\" stroke-width=\"1\" fill=\"none\" d=\"", hex(WAVEFORM)));
+            out.append(path);
+            out.write("\"/>\n");
+        }
+
+        out.write(String.format(Locale.ROOT, "<g fill=\"%s\">%n", hex(PEAKS)));
+        long count = pyramid.getSampleCount();
+        for (int k = 0; k < peakIndices.size(); k++) {
+            long peakIndex = peakIndices.get(k);
+            int y = clampY(WaveformRenderer.toY(pyramid.peakValue(peakIndex), height, GAIN), height);
+            out.write(String.format(Locale.ROOT, "<circle cx=\"%d\" cy=\"%d\" r=\"3\"/>%n", peakIndex * width / count, y));
+        }
+        out.write("</g>\n");
+
+        out.write(String.format(Locale.ROOT, "<g fill=\"%s\" font-family=\"Arial\" font-weight=\"bold\" font-size=\"20\">%n", hex(PEAKS)));
+        for (int i = 0; i < annotations.length; i++) {
+            out.write(String.format(Locale.ROOT, "<text x=\"10\" y=\"%d\">%s</text>%n", 30 * (i + 1), xml(annotations[i])));
+        }
+        out.write("</g>\n</svg>\n");
+    }
+
+    // Top and bottom row of the waveform in every column, interleaved.
+    private short[] columnExtents(int width, int height) {
+        if (height > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Height above " + Short.MAX_VALUE + ": " + height);
+        }
+        long count = pyramid.getSampleCount();
+        short[] extents = new short[2 * width];
+        if (samples != null && count / (double) width < MinMaxPyramid.BASE_BUCKET) {
+            rawExtents(extents, width, height);
+            return extents;
+        }
+        int level = pyramid.levelFor(count / (double) width);
+        float[] range = new float[2];
+        for (int x = 0; x < width; x++) {
+            long start = x * count / width;
+            long end = Math.max(start + 1, (x + 1) * count / width);
+            pyramid.range(level, start, end, range);
+            setExtent(extents, x, range[0], range[1], height);
+        }
+        return extents;
+    }
+
+    // Min/max of the decoded samples of each column, joined to the previous column's last sample.
+    private void rawExtents(short[] extents, int width, int height) {
+        long count = pyramid.getSampleCount();
+        double[] buffer = new double[0];
+        double previous = Double.NaN;
+        for (int tile = 0; tile < width; tile += TILE_COLUMNS) {
+            int tileEnd = Math.min(width, tile + TILE_COLUMNS);
+            long first = tile * count / width;
+            int length = (int) (tileEnd * count / width - first);
+            if (buffer.length < length) {
+                buffer = new double[length];
+            }
+            int read = samples.read(first, length, buffer);
+            for (int x = tile; x < tileEnd; x++) {
+                int start = (int) (x * count / width - first);
+                int end = Math.min(read, (int) ((x + 1) * count / width - first));
+                double lo = Double.isNaN(previous) ? Double.POSITIVE_INFINITY : previous;
+                double hi = Double.isNaN(previous) ? Double.NEGATIVE_INFINITY : previous;
+                for (int i = start; i < end; i++) {
+                    lo = Math.min(lo, buffer[i]);
+                    hi = Math.max(hi, buffer[i]);
+                }
+                if (end > start) {
+                    previous = buffer[end - 1];
+                }
+                setExtent(extents, x, lo, hi, height);
+            }
+        }
+    }
+
+    private static void setExtent(short[] extents, int x, double lo, double hi, int height) {
+        if (lo > hi) {
+            lo = 0; // no samples in the column
+            hi = 0;
+        }
+        int a = clampY(WaveformRenderer.toY(lo, height, GAIN), height);
+        int b = clampY(WaveformRenderer.toY(hi, height, GAIN), height);
+        extents[2 * x] = (short) Math.min(a, b);
+        extents[2 * x + 1] = (short) Math.max(a, b);
+    }
+
+    private static int clampY(int y, int height) {
+        return Math.max(0, Math.min(height - 1, y));
+    }
+
+    // The shortest tick interval that leaves MIN_LABEL_SPACING pixels between labels.
+    private static int tickSeconds(double pixelsPerSecond) {
+        for (int seconds : TICK_SECONDS) {
+            if (seconds * pixelsPerSecond >= MIN_LABEL_SPACING) {
+                return seconds;
+            }
+        }
+        int hours = (int) Math.ceil(MIN_LABEL_SPACING / (3600 * pixelsPerSecond));
+        return 3600 * hours;
+    }
+
+    private static String formatTime(int seconds) {
+        if (seconds >= 3600) {
+            return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+        return String.format(Locale.ROOT, "%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    private static String hex(Color c) {
+        return String.format("#%02x%02x%02x", c.getRed(), c.getGreen(), c.getBlue());
+    }
+
+    private static String xml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        double pps = DEFAULT_PIXELS_PER_SECOND;
+        int height = DEFAULT_HEIGHT;
+        boolean svg = false;
+        boolean adaptive = false;
+        boolean bandPass = false;
+        File outDir = null;
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--pps": pps = Double.parseDouble(args[++i]); break;
+                case "--height": height = Integer.parseInt(args[++i]); break;
+                case "--format": svg = "svg".equalsIgnoreCase(args[++i]); break;
+                case "--out": outDir = new File(args[++i]); break;
+                case "--adaptive": adaptive = true; break;
+                case "--band-pass": bandPass = true; break;
+                default: paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty()) {
+            System.err.println("usage: java TiledExporter [--pps N] [--height N] [--format png|svg] [--out DIR] [--adaptive] [--band-pass] PATH...");
+            System.exit(2);
+        }
+        if (outDir != null) {
+            outDir.mkdirs();
+        }
+
+        boolean failed = false;
+        for (Path path : HeartbeatBatch.collectWavFiles(paths)) {
+            File file = path.toFile();
+            long start = System.nanoTime();
+            try {
+                RecordingAnalyzer analyzer = new RecordingAnalyzer(adaptive, bandPass, true, ForkJoinPool.commonPool());
+                analyzer.processWavFile(file);
+                TiledExporter exporter = new TiledExporter(analyzer.getPyramid(), analyzer.getPeakIndices(), RecordingAnalyzer.SAMPLE_RATE);
+                exporter.setAnnotations(summary(analyzer.getBpm(), analyzer.getFftBpm(), analyzer.getFftConfidence(),
+                        analyzer.getSdnn(), analyzer.getRmssd(), analyzer.getPnn50()));
+                String name = file.getName().replaceFirst("(?i)\\.wav$", "") + (svg ? ".svg" : ".png");
+                File target = new File(outDir != null ? outDir : file.getAbsoluteFile().getParentFile(), name);
+                try (MappedWav mapped = openMapped(file)) {
+                    exporter.setSamples(mapped);
+                    if (svg) {
+                        exporter.writeSvg(target, pps, height);
+                    } else {
+                        exporter.writePng(target, pps, height);
+                    }
+                }
+                System.out.printf(Locale.ROOT, "%s -> %s (%dx%d, %.0f ms)%n", file, target, exporter.getWidth(pps), height,
+                        (System.nanoTime() - start) / 1e6);
+            } catch (Exception e) {
+                System.err.println(file + ": " + e.getMessage());
+                failed = true;
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    // Null when the file is not plain PCM; the export then stays at pyramid resolution.
+    private static MappedWav openMapped(File file) {
+        try {
+            return new MappedWav(file);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+// Long-term trends of one source from its TrendStore: the min-max range of every rollup bucket as
+// a band, with the mean drawn over it, for the last hour up to the last week. A query only reads the
+// rollup level that gives about one bucket per pixel column, so even a week redraws instantly.
+// Refreshes itself every REFRESH_MS while shown.
+public class TrendChart extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+    private static final String[] RANGE_NAMES = {"1 hour", "6 hours", "24 hours", "7 days"};
+    private static final long[] RANGE_MILLIS = {3_600_000L, 6 * 3_600_000L, 24 * 3_600_000L, 7 * 24 * 3_600_000L};
+    private static final int REFRESH_MS = 5000;
+    private static final int MARGIN_LEFT = 60;
+    private static final int MARGIN_BOTTOM = 30;
+    private static final int MARGIN_TOP = 30;
+
+    private final File root;
+    private final JComboBox<String> sourceBox = new JComboBox<>();
+    private final JComboBox<TrendStore.Metric> metricBox = new JComboBox<>(TrendStore.Metric.values());
+    private final JComboBox<String> rangeBox = new JComboBox<>(RANGE_NAMES);
+    private final JPanel plot;
+    private TrendStore store;
+    private String storeSource;
+    private TrendStore.Series series;
+    private long from;
+    private long to;
+    private double queryMillis;
+
+    public TrendChart(File root) {
+        super(new BorderLayout());
+        this.root = root;
+        rangeBox.setSelectedIndex(2);
+
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        controls.setBackground(Color.DARK_GRAY);
+        JButton refreshButton = new JButton("Refresh");
+        controls.add(sourceBox);
+        controls.add(metricBox);
+        controls.add(rangeBox);
+        controls.add(refreshButton);
+        add(controls, BorderLayout.NORTH);
+
+        plot = new JPanel() {
+            @Override
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                drawChart(g, getWidth(), getHeight());
+            }
+        };
+        plot.setBackground(Color.DARK_GRAY);
+        plot.setPreferredSize(new Dimension(1000, 400));
+        add(plot, BorderLayout.CENTER);
+
+        reloadSources();
+        sourceBox.addActionListener(e -> refresh());
+        metricBox.addActionListener(e -> refresh());
+        rangeBox.addActionListener(e -> refresh());
+        refreshButton.addActionListener(e -> {
+            reloadSources();
+            refresh();
+        });
+        Timer timer = new Timer(REFRESH_MS, e -> refresh());
+        addHierarchyListener(e -> {
+            if (isShowing()) {
+                timer.start();
+            } else {
+                timer.stop();
+            }
+        });
+        refresh();
+    }
+
+    // Opens the chart in its own window; the store is closed with it.
+    public static void showWindow(Component parent, File root) {
+        JFrame frame = new JFrame("Heartbeat Trends");
+        TrendChart chart = new TrendChart(root);
+        frame.add(chart);
+        frame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        frame.addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                chart.closeStore();
+            }
+        });
+        frame.pack();
+        frame.setLocationRelativeTo(parent);
+        frame.setVisible(true);
+    }
+
+    private void reloadSources() {
+        Object selected = sourceBox.getSelectedItem();
+        sourceBox.removeAllItems();
+        for (String source : TrendStore.sources(root)) {
+            sourceBox.addItem(source);
+        }
+        if (selected != null) {
+            sourceBox.setSelectedItem(selected);
+        }
+    }
+
+    private void refresh() {
+        String source = (String) sourceBox.getSelectedItem();
+        series = null;
+        if (source != null) {
+            try {
+                if (!source.equals(storeSource)) {
+                    closeStore();
+                    store = TrendStore.openReadOnly(new File(root, source));
+                    storeSource = source;
+                }
+                to = System.currentTimeMillis();
+                from = to - RANGE_MILLIS[rangeBox.getSelectedIndex()];
+                long start = System.nanoTime();
+                series = store.query((TrendStore.Metric) metricBox.getSelectedItem(), from, to,
+                        Math.max(1, plot.getWidth() - MARGIN_LEFT));
+                queryMillis = (System.nanoTime() - start) / 1e6;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        plot.repaint();
+    }
+
+    private void closeStore() {
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            store = null;
+            storeSource = null;
+        }
+    }
+
+    private void drawChart(Graphics g, int width, int height) {
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(new Font("Arial", Font.PLAIN, 12));
+        int plotWidth = width - MARGIN_LEFT;
+        int plotHeight = height - MARGIN_TOP - MARGIN_BOTTOM;
+        if (series == null || series.size() == 0 || plotWidth <= 0 || plotHeight <= 0) {
+            g.setColor(Color.LIGHT_GRAY);
+            g.drawString(sourceBox.getItemCount() == 0 ? "No trend history in " + root : "No data in this range", MARGIN_LEFT, MARGIN_TOP);
+            return;
+        }
+
+        double lo = Double.POSITIVE_INFINITY;
+        double hi = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < series.size(); i++) {
+            lo = Math.min(lo, series.getMin(i));
+            hi = Math.max(hi, series.getMax(i));
+        }
+        if (hi - lo < 1e-9) {
+            lo -= 1;
+            hi += 1;
+        }
+        double pad = (hi - lo) * 0.05;
+        lo -= pad;
+        hi += pad;
+
+        // Axes: five value lines, and time labels about every 120 pixels
+        g.setColor(new Color(96, 96, 96));
+        for (int k = 0; k <= 4; k++) {
+            int y = MARGIN_TOP + plotHeight * k / 4;
+            g.drawLine(MARGIN_LEFT, y, width, y);
+            g.setColor(Color.LIGHT_GRAY);
+            g.drawString(String.format(Locale.ROOT, "%.1f", hi - (hi - lo) * k / 4), 4, y + 4);
+            g.setColor(new Color(96, 96, 96));
+        }
+        SimpleDateFormat format = new SimpleDateFormat(to - from > 24 * 3_600_000L ? "EEE HH:mm" : "HH:mm");
+        g.setColor(Color.LIGHT_GRAY);
+        for (int x = MARGIN_LEFT; x < width - 60; x += 120) {
+            long time = from + (long) ((x - MARGIN_LEFT) / (double) plotWidth * (to - from));
+            g.drawString(format.format(new Date(time)), x, height - 10);
+        }
+
+        // Band from min to max, mean on top; gaps where there are no buckets
+        int[] meanX = new int[series.size()];
+        int[] meanY = new int[series.size()];
+        g.setColor(new Color(255, 80, 80, 90));
+        for (int i = 0; i < series.size(); i++) {
+            int x0 = toX(series.getStart(i), plotWidth);
+            int x1 = Math.max(x0 + 1, toX(series.getStart(i) + series.getSpan(), plotWidth));
+            int yMax = toY(series.getMax(i), lo, hi, plotHeight);
+            int yMin = toY(series.getMin(i), lo, hi, plotHeight);
+            g.fillRect(x0, yMax, x1 - x0, Math.max(1, yMin - yMax));
+            meanX[i] = (x0 + x1) / 2;
+            meanY[i] = toY(series.getMean(i), lo, hi, plotHeight);
+        }
+        g.setColor(Color.RED);
+        for (int i = 1; i < series.size(); i++) {
+            if (series.getStart(i) - series.getStart(i - 1) <= series.getSpan()) {
+                g.drawLine(meanX[i - 1], meanY[i - 1], meanX[i], meanY[i]);
+            }
+        }
+
+        g.setColor(Color.LIGHT_GRAY);
+        g.drawString(String.format(Locale.ROOT, "%s   %d buckets of %s   query %.1f ms", metricBox.getSelectedItem(), series.size(),
+                spanName(series.getSpan()), queryMillis), MARGIN_LEFT, 18);
+    }
+
+    private int toX(long time, int plotWidth) {
+        return MARGIN_LEFT + (int) ((time - from) * plotWidth / Math.max(1, to - from));
+    }
+
+    private static int toY(double value, double lo, double hi, int plotHeight) {
+        return MARGIN_TOP + (int) ((hi - value) / (hi - lo) * plotHeight);
+    }
+
+    private static String spanName(long span) {
+        return span >= 3_600_000 ? span / 3_600_000 + " h" : span >= 60_000 ? span / 60_000 + " min" : span / 1000 + " s";
+    }
+}
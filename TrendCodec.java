@@ -0,0 +1,212 @@
+import java.util.Arrays;
+
+// Gorilla-style compression of (time, value) points for TrendStore. Timestamps are stored as the
+// delta of their delta in 1, 9, 12, 16 or 36 bits. A series sampled once a second then costs one
+// bit a point. Values are XORed with the previous one: a repeat costs one bit, otherwise only the
+// meaningful bits between the leading and trailing zeros are kept, reusing the previous window
+// when they fit. Every block starts from a raw first point, so each decodes on its own.
+public final class TrendCodec {
+
+    private TrendCodec() {
+    }
+
+    public static final class Encoder {
+        private long[] words = new long[64];
+        private long bits = 0;
+        private int count = 0;
+        private long firstTime;
+        private long lastTime;
+        private long lastDelta;
+        private long lastValue;
+        private int lastLeading = -1;
+        private int lastTrailing;
+
+        // False if the point cannot follow the previous one in this block (time went backwards or
+        // jumped by more than an int); the caller then seals the block and starts another.
+        public boolean add(long time, double value) {
+            long v = Double.doubleToRawLongBits(value);
+            if (count == 0) {
+                firstTime = time;
+                write(time, 64);
+                write(v, 64);
+            } else {
+                long delta = time - lastTime;
+                if (delta < 0 || delta > Integer.MAX_VALUE) {
+                    return false;
+                }
+                writeTime(count == 1 ? delta : delta - lastDelta);
+                writeValue(v);
+                lastDelta = delta;
+            }
+            lastTime = time;
+            lastValue = v;
+            count++;
+            return true;
+        }
+
+        private void writeTime(long dod) {
+            if (dod == 0) {
+                write(0, 1);
+            } else if (dod >= -64 && dod <= 63) {
+                write(0b10, 2);
+                write(dod, 7);
+            } else if (dod >= -256 && dod <= 255) {
+                write(0b110, 3);
+                write(dod, 9);
+            } else if (dod >= -2048 && dod <= 2047) {
+                write(0b1110, 4);
+                write(dod, 12);
+            } else {
+                write(0b1111, 4);
+                write(dod, 32);
+            }
+        }
+
+        private void writeValue(long v) {
+            long xor = v ^ lastValue;
+            if (xor == 0) {
+                write(0, 1);
+                return;
+            }
+            int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+                write(0b10, 2);
+                write(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+                return;
+            }
+            int significant = 64 - leading - trailing;
+            write(0b11, 2);
+            write(leading, 5);
+            write(significant & 63, 6); // 64 is written as 0
+            write(xor >>> trailing, significant);
+            lastLeading = leading;
+            lastTrailing = trailing;
+        }
+
+        // Appends the low n bits of value, most significant first.
+        private void write(long value, int n) {
+            if (n == 0) {
+                return;
+            }
+            int word = (int) (bits >>> 6);
+            if (word + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            int used = (int) (bits & 63);
+            long v = n == 64 ? value : value & ((1L << n) - 1);
+            int free = 64 - used;
+            if (n <= free) {
+                words[word] |= v << (free - n);
+            } else {
+                words[word] |= v >>> (n - free);
+                words[word + 1] |= v << (64 - (n - free));
+            }
+            bits += n;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getFirstTime() {
+            return firstTime;
+        }
+
+        public long getLastTime() {
+            return lastTime;
+        }
+
+        public int getByteSize() {
+            return (int) ((bits + 7) >>> 3);
+        }
+
+        // The encoded bits, big-endian, padded to whole bytes.
+        public byte[] toBytes() {
+            byte[] out = new byte[getByteSize()];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = (byte) (words[i >>> 3] >>> (56 - 8 * (i & 7)));
+            }
+            return out;
+        }
+
+        public void reset() {
+            Arrays.fill(words, 0, (int) Math.min(words.length, (bits >>> 6) + 2), 0);
+            bits = 0;
+            count = 0;
+            lastLeading = -1;
+        }
+    }
+
+    public interface PointConsumer {
+        void accept(long time, double value);
+    }
+
+    // Decodes count points from a block written by Encoder.
+    public static void decode(byte[] data, int count, PointConsumer consumer) {
+        Reader in = new Reader(data);
+        if (count == 0) {
+            return;
+        }
+        long time = in.read(64);
+        long value = in.read(64);
+        consumer.accept(time, Double.longBitsToDouble(value));
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            long dod;
+            if (in.read(1) == 0) {
+                dod = 0;
+            } else if (in.read(1) == 0) {
+                dod = in.readSigned(7);
+            } else if (in.read(1) == 0) {
+                dod = in.readSigned(9);
+            } else if (in.read(1) == 0) {
+                dod = in.readSigned(12);
+            } else {
+                dod = in.readSigned(32);
+            }
+            delta = i == 1 ? dod : delta + dod;
+            time += delta;
+
+            if (in.read(1) == 1) {
+                if (in.read(1) == 1) {
+                    leading = (int) in.read(5);
+                    int significant = (int) in.read(6);
+                    if (significant == 0) {
+                        significant = 64;
+                    }
+                    trailing = 64 - leading - significant;
+                }
+                value ^= in.read(64 - leading - trailing) << trailing;
+            }
+            consumer.accept(time, Double.longBitsToDouble(value));
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private long bit = 0;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        long read(int n) {
+            long v = 0;
+            for (int i = 0; i < n; i++) {
+                int b = data[(int) (bit >>> 3)] >>> (7 - (int) (bit & 7)) & 1;
+                v = v << 1 | b;
+                bit++;
+            }
+            return v;
+        }
+
+        // n-bit two's complement
+        long readSigned(int n) {
+            long v = read(n);
+            return v << (64 - n) >> (64 - n);
+        }
+    }
+}
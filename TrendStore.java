@@ -0,0 +1,624 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Long-term trend history of one source: per-beat RR intervals and per-second BPM and HRV, kept
+// across sessions in a directory of append-only files.
+//
+// Points are offered from the analysis thread into a lock-free ring and never wait: if the writer
+// thread falls a whole ring behind, points are dropped and counted. The writer compresses each
+// metric with TrendCodec into blocks. A block is sealed when it reaches BLOCK_BYTES or gets older
+// than SEAL_MILLIS, then appended to an hourly segment file. Alongside, it keeps 1 min and 1 h
+// rollups (count, sum, min, max) and appends them as fixed-size records once each bucket closes.
+// A range query uses the finest level that gives at most maxPoints buckets: 1 min and 1 h are
+// found in their rollup file by binary search, so charting a day takes milliseconds, while 1 s
+// buckets are only asked for over short ranges and are summed from the compressed segments.
+// Per-second metrics would gain nothing from a 1 s rollup file but its size.
+//
+// Only one store at a time may write a directory; a second one fails to open rather than
+// interleave its records with the first's.
+//
+// Files, little-endian:
+//   <metric>-<hourStartMillis>.seg  blocks of: int byteLength, int count, long firstTime, long lastTime, bytes
+//   <metric>-<level>.rollup         records of: long start, int count, double sum, double min, double max
+//                                   (levels 1 and 2, in start order)
+//   writer.lock                     held while a store is writing
+public class TrendStore implements Closeable {
+
+    public enum Metric {
+        RR("rr", "RR (ms)"),
+        BPM("bpm", "BPM"),
+        SDNN("sdnn", "SDNN (ms)"),
+        RMSSD("rmssd", "RMSSD (ms)"),
+        PNN50("pnn50", "pNN50 (%)");
+
+        private final String fileName;
+        private final String label;
+
+        Metric(String fileName, String label) {
+            this.fileName = fileName;
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public static final long[] ROLLUP_MILLIS = {1000, 60_000, 3_600_000}; // level 0 is read from the segments
+    private static final int FIRST_FILE_LEVEL = 1;
+    private static final long SEGMENT_MILLIS = 3_600_000;
+    private static final int BLOCK_BYTES = 4096;
+    private static final long SEAL_MILLIS = 60_000; // at most this much is lost if the process dies
+    private static final int BLOCK_HEADER = 24;
+    private static final int RECORD_BYTES = 36;
+    private static final int RING_POINTS = 1 << 14;
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final File dir;
+    private final MetricState[] states = new MetricState[Metric.values().length];
+
+    // Producer/consumer ring of points, as in SpscBlockRing
+    private final long[] ringTimes = new long[RING_POINTS];
+    private final double[] ringValues = new double[RING_POINTS];
+    private final byte[] ringMetrics = new byte[RING_POINTS];
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong droppedPoints = new AtomicLong();
+    private final Thread writerThread; // null when read-only
+    private FileChannel lockChannel;
+    private volatile boolean running;
+
+    // One rollup bucket being filled.
+    private static final class Bucket {
+        long start = Long.MIN_VALUE;
+        int count;
+        double sum;
+        double min;
+        double max;
+    }
+
+    // Writer-side state of one metric. Queries lock it to see the open buckets.
+    private final class MetricState {
+        final Metric metric;
+        final TrendCodec.Encoder encoder = new TrendCodec.Encoder();
+        long sealedAt; // wall time the open block was started
+        long segmentStart; // segment of the open block
+        FileChannel segment;
+        long openSegment = Long.MIN_VALUE; // segment the channel is appending to
+        final FileChannel[] rollups = new FileChannel[ROLLUP_MILLIS.length];
+        final Bucket[] open = new Bucket[ROLLUP_MILLIS.length];
+        final long[] lastWritten = new long[ROLLUP_MILLIS.length]; // start of the last record in each file
+
+        MetricState(Metric metric, boolean readOnly) throws IOException {
+            this.metric = metric;
+            for (int level = FIRST_FILE_LEVEL; level < ROLLUP_MILLIS.length; level++) {
+                open[level] = new Bucket();
+                lastWritten[level] = Long.MIN_VALUE;
+                File file = new File(dir, metric.fileName + "-" + level + ".rollup");
+                if (readOnly) {
+                    rollups[level] = file.isFile() ? FileChannel.open(file.toPath(), StandardOpenOption.READ) : null;
+                    continue;
+                }
+                rollups[level] = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                // A torn record from a crash is cut off so the file stays a whole number of records
+                long records = rollups[level].size() / RECORD_BYTES;
+                rollups[level].truncate(records * RECORD_BYTES);
+                if (records > 0) {
+                    ByteBuffer start = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                    readFully(rollups[level], start, (records - 1) * RECORD_BYTES);
+                    lastWritten[level] = start.getLong(0);
+                }
+            }
+        }
+    }
+
+    public TrendStore(File dir) throws IOException {
+        this(dir, false);
+    }
+
+    private TrendStore(File dir, boolean readOnly) throws IOException {
+        this.dir = dir;
+        try {
+            if (!readOnly) {
+                dir.mkdirs();
+                lock();
+            }
+            for (Metric metric : Metric.values()) {
+                states[metric.ordinal()] = new MetricState(metric, readOnly);
+            }
+        } catch (IOException e) {
+            closeFiles();
+            throw e;
+        }
+        running = !readOnly;
+        if (readOnly) {
+            writerThread = null;
+            return;
+        }
+        writerThread = new Thread(this::writeLoop, "heartbeat-trends-" + dir.getName());
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private void lock() throws IOException {
+        lockChannel = FileChannel.open(new File(dir, "writer.lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // held by another store in this process
+        }
+        if (lock == null) {
+            throw new IOException("Trend history is already being written: " + dir);
+        }
+    }
+
+    // For charts: queries what has been written, also while another store is appending to dir,
+    // in which case its open buckets are not visible yet. offer always drops.
+    public static TrendStore openReadOnly(File dir) throws IOException {
+        return new TrendStore(dir, true);
+    }
+
+    // -Dheartbeat.trends.dir (default ~/.heartbeatGrapher/trends), one subdirectory per source.
+    public static File defaultRoot() {
+        return new File(System.getProperty("heartbeat.trends.dir",
+                System.getProperty("user.home") + File.separator + ".heartbeatGrapher" + File.separator + "trends"));
+    }
+
+    public static File sourceDir(File root, String source) {
+        return new File(root, source.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    // Sources with a trend history under root.
+    public static List<String> sources(File root) {
+        List<String> names = new ArrayList<>();
+        File[] dirs = root.listFiles(File::isDirectory);
+        if (dirs != null) {
+            for (File d : dirs) {
+                names.add(d.getName());
+            }
+        }
+        names.sort(null);
+        return names;
+    }
+
+    // Analysis thread: never blocks. False if the point was dropped.
+    public boolean offer(Metric metric, long timeMillis, double value) {
+        long t = tail.get();
+        if (t - head.get() == RING_POINTS || !running) {
+            droppedPoints.incrementAndGet();
+            return false;
+        }
+        int slot = (int) (t & (RING_POINTS - 1));
+        ringTimes[slot] = timeMillis;
+        ringValues[slot] = value;
+        ringMetrics[slot] = (byte) metric.ordinal();
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    public long getDroppedPoints() {
+        return droppedPoints.get();
+    }
+
+    private void writeLoop() {
+        long lastSealCheck = 0;
+        while (running || head.get() != tail.get()) {
+            long h = head.get();
+            long t = tail.get();
+            try {
+                for (; h < t; h++) {
+                    int slot = (int) (h & (RING_POINTS - 1));
+                    append(states[ringMetrics[slot]], ringTimes[slot], ringValues[slot]);
+                    head.lazySet(h + 1);
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastSealCheck >= 1000) {
+                    lastSealCheck = now;
+                    for (MetricState state : states) {
+                        if (state.encoder.getCount() > 0 && now - state.sealedAt >= SEAL_MILLIS) {
+                            seal(state);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                head.lazySet(t); // Skip what could not be written rather than stall the producer
+            }
+            if (h == tail.get()) {
+                LockSupport.parkNanos(IDLE_WAIT_NANOS);
+            }
+        }
+    }
+
+    // Under the state's lock, so a 1 s query sees each point either in a sealed block or in the open one.
+    private void append(MetricState state, long time, double value) throws IOException {
+        synchronized (state) {
+            appendLocked(state, time, value);
+        }
+    }
+
+    private void appendLocked(MetricState state, long time, double value) throws IOException {
+        if (state.encoder.getCount() > 0 && Math.floorDiv(time, SEGMENT_MILLIS) * SEGMENT_MILLIS != state.segmentStart) {
+            seal(state); // blocks never span segment files
+        }
+        if (state.encoder.getCount() == 0) {
+            state.sealedAt = System.currentTimeMillis();
+            state.segmentStart = Math.floorDiv(time, SEGMENT_MILLIS) * SEGMENT_MILLIS;
+        }
+        if (!state.encoder.add(time, value)) {
+            seal(state); // out of order: start a block of its own
+            state.sealedAt = System.currentTimeMillis();
+            state.segmentStart = Math.floorDiv(time, SEGMENT_MILLIS) * SEGMENT_MILLIS;
+            state.encoder.add(time, value);
+        }
+        if (state.encoder.getByteSize() >= BLOCK_BYTES) {
+            seal(state);
+        }
+        for (int level = FIRST_FILE_LEVEL; level < ROLLUP_MILLIS.length; level++) {
+            Bucket bucket = state.open[level];
+            long start = Math.floorDiv(time, ROLLUP_MILLIS[level]) * ROLLUP_MILLIS[level];
+            if (bucket.count > 0 && start > bucket.start) {
+                writeRecord(state, level);
+            }
+            if (bucket.count == 0) {
+                bucket.start = start;
+                bucket.sum = 0;
+                bucket.min = value;
+                bucket.max = value;
+            }
+            // A late point joins the open bucket rather than rewrite a closed one
+            bucket.count++;
+            bucket.sum += value;
+            bucket.min = Math.min(bucket.min, value);
+            bucket.max = Math.max(bucket.max, value);
+        }
+    }
+
+    private void seal(MetricState state) throws IOException {
+        synchronized (state) {
+            sealLocked(state);
+        }
+    }
+
+    private void sealLocked(MetricState state) throws IOException {
+        TrendCodec.Encoder encoder = state.encoder;
+        if (encoder.getCount() == 0) {
+            return;
+        }
+        if (state.openSegment != state.segmentStart) {
+            if (state.segment != null) {
+                state.segment.close();
+            }
+            state.segment = FileChannel.open(segmentFile(state.metric, state.segmentStart).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            state.openSegment = state.segmentStart;
+        }
+        byte[] bytes = encoder.toBytes();
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        block.putInt(bytes.length).putInt(encoder.getCount()).putLong(encoder.getFirstTime()).putLong(encoder.getLastTime()).put(bytes);
+        block.flip();
+        while (block.hasRemaining()) {
+            state.segment.write(block);
+        }
+        encoder.reset();
+    }
+
+    // Appends the open bucket of level and empties it. Records must stay in start order for query's
+    // binary search; if the clock stepped back, the bucket is merged into the last record instead.
+    private static void writeRecord(MetricState state, int level) throws IOException {
+        Bucket bucket = state.open[level];
+        FileChannel channel = state.rollups[level];
+        long start = Math.max(bucket.start, state.lastWritten[level]);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        record.putLong(start).putInt(bucket.count).putDouble(bucket.sum).putDouble(bucket.min).putDouble(bucket.max);
+        record.flip();
+        long position = channel.size();
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        state.lastWritten[level] = start;
+        bucket.count = 0;
+    }
+
+    private File segmentFile(Metric metric, long segmentStart) {
+        return new File(dir, metric.fileName + "-" + segmentStart + ".seg");
+    }
+
+    // Rollup buckets of one level, oldest first.
+    public static final class Series {
+        private final long span;
+        private int size = 0;
+        private long[] starts = new long[64];
+        private int[] counts = new int[64];
+        private double[] sums = new double[64];
+        private double[] mins = new double[64];
+        private double[] maxs = new double[64];
+
+        Series(long span) {
+            this.span = span;
+        }
+
+        // Buckets with the same start (a bucket closed by one session and reopened by the next) are merged.
+        void add(long start, int count, double sum, double min, double max) {
+            if (size > 0 && starts[size - 1] == start) {
+                int last = size - 1;
+                counts[last] += count;
+                sums[last] += sum;
+                mins[last] = Math.min(mins[last], min);
+                maxs[last] = Math.max(maxs[last], max);
+                return;
+            }
+            if (size == starts.length) {
+                int capacity = size * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+                sums = Arrays.copyOf(sums, capacity);
+                mins = Arrays.copyOf(mins, capacity);
+                maxs = Arrays.copyOf(maxs, capacity);
+            }
+            starts[size] = start;
+            counts[size] = count;
+            sums[size] = sum;
+            mins[size] = min;
+            maxs[size] = max;
+            size++;
+        }
+
+        public long getSpan() {
+            return span;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getStart(int i) {
+            return starts[i];
+        }
+
+        public int getCount(int i) {
+            return counts[i];
+        }
+
+        public double getMean(int i) {
+            return sums[i] / counts[i];
+        }
+
+        public double getMin(int i) {
+            return mins[i];
+        }
+
+        public double getMax(int i) {
+            return maxs[i];
+        }
+    }
+
+    // Buckets overlapping [from, to) at the finest level that needs no more than maxPoints of them,
+    // including the ones still open. Safe to call from any thread.
+    public Series query(Metric metric, long from, long to, int maxPoints) throws IOException {
+        int level = 0;
+        while (level < ROLLUP_MILLIS.length - 1 && (to - from) / ROLLUP_MILLIS[level] > maxPoints) {
+            level++;
+        }
+        long span = ROLLUP_MILLIS[level];
+        MetricState state = states[metric.ordinal()];
+        if (level < FIRST_FILE_LEVEL) {
+            return querySegments(state, from, to, span);
+        }
+        Series series = new Series(span);
+        FileChannel channel = state.rollups[level];
+        long records = channel != null ? channel.size() / RECORD_BYTES : 0;
+
+        // First record that ends after from; records are in start order
+        long lo = 0;
+        long hi = records;
+        ByteBuffer one = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            one.clear();
+            readFully(channel, one, mid * RECORD_BYTES);
+            if (one.getLong(0) + span <= from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        ByteBuffer batch = ByteBuffer.allocate(RECORD_BYTES * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        for (long r = lo; r < records; ) {
+            int n = (int) Math.min(1024, records - r);
+            batch.clear().limit(n * RECORD_BYTES);
+            readFully(channel, batch, r * RECORD_BYTES);
+            batch.flip();
+            for (int k = 0; k < n; k++) {
+                long start = batch.getLong();
+                int count = batch.getInt();
+                double sum = batch.getDouble();
+                double min = batch.getDouble();
+                double max = batch.getDouble();
+                if (start >= to) {
+                    r = records;
+                    break;
+                }
+                series.add(start, count, sum, min, max);
+            }
+            r += n;
+        }
+
+        synchronized (state) {
+            Bucket bucket = state.open[level];
+            if (bucket.count > 0 && bucket.start + span > from && bucket.start < to) {
+                series.add(bucket.start, bucket.count, bucket.sum, bucket.min, bucket.max);
+            }
+        }
+        return series;
+    }
+
+    // Sums the points of [from, to) into span buckets, from the sealed blocks and the open one. The
+    // lock keeps the writer from sealing in between, so no point is missed or counted twice.
+    private Series querySegments(MetricState state, long from, long to, long span) throws IOException {
+        long first = Math.floorDiv(from, span);
+        int buckets = (int) (Math.floorDiv(to - 1, span) - first + 1);
+        int[] counts = new int[buckets];
+        double[] sums = new double[buckets];
+        double[] mins = new double[buckets];
+        double[] maxs = new double[buckets];
+        TrendCodec.PointConsumer sum = (time, value) -> {
+            if (time >= from && time < to) {
+                int b = (int) (Math.floorDiv(time, span) - first);
+                if (counts[b]++ == 0) {
+                    mins[b] = value;
+                    maxs[b] = value;
+                }
+                sums[b] += value;
+                mins[b] = Math.min(mins[b], value);
+                maxs[b] = Math.max(maxs[b], value);
+            }
+        };
+        synchronized (state) {
+            readRaw(state.metric, from, to, sum);
+            if (state.encoder.getCount() > 0) {
+                TrendCodec.decode(state.encoder.toBytes(), state.encoder.getCount(), sum);
+            }
+        }
+        Series series = new Series(span);
+        for (int b = 0; b < buckets; b++) {
+            if (counts[b] > 0) {
+                series.add((first + b) * span, counts[b], sums[b], mins[b], maxs[b]);
+            }
+        }
+        return series;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Rollup file truncated");
+            }
+            position += n;
+        }
+    }
+
+    // Every stored point in [from, to), oldest first. Only sealed blocks are on disk, so the last
+    // SEAL_MILLIS or so may be missing until the block fills, ages out or the store is closed.
+    public void readRaw(Metric metric, long from, long to, TrendCodec.PointConsumer consumer) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(metric.fileName + "-") && name.endsWith(".seg"));
+        if (files == null) {
+            return;
+        }
+        List<Long> segments = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            long start = Long.parseLong(name.substring(metric.fileName.length() + 1, name.length() - 4));
+            if (start + SEGMENT_MILLIS > from && start < to) {
+                segments.add(start);
+            }
+        }
+        segments.sort(null);
+        for (long start : segments) {
+            try (FileChannel channel = FileChannel.open(segmentFile(metric, start).toPath(), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                long position = 0;
+                long size = channel.size();
+                while (position + BLOCK_HEADER <= size) {
+                    header.clear();
+                    readFully(channel, header, position);
+                    int length = header.getInt(0);
+                    int count = header.getInt(4);
+                    long first = header.getLong(8);
+                    long last = header.getLong(16);
+                    if (position + BLOCK_HEADER + length > size) {
+                        break; // torn last block
+                    }
+                    if (last >= from && first < to) {
+                        ByteBuffer data = ByteBuffer.allocate(length);
+                        readFully(channel, data, position + BLOCK_HEADER);
+                        TrendCodec.decode(data.array(), count, (time, value) -> {
+                            if (time >= from && time < to) {
+                                consumer.accept(time, value);
+                            }
+                        });
+                    }
+                    position += BLOCK_HEADER + length;
+                }
+            }
+        }
+    }
+
+    // Writes everything still queued, seals the open blocks and rollup buckets, and closes the files.
+    @Override
+    public void close() throws IOException {
+        if (writerThread == null) {
+            closeFiles();
+            return;
+        }
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException failure = null;
+        for (MetricState state : states) {
+            try {
+                synchronized (state) {
+                    sealLocked(state);
+                    for (int level = FIRST_FILE_LEVEL; level < ROLLUP_MILLIS.length; level++) {
+                        if (state.open[level].count > 0) {
+                            writeRecord(state, level);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        closeFiles();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void closeFiles() {
+        for (MetricState state : states) {
+            if (state == null) {
+                continue;
+            }
+            try {
+                if (state.segment != null) {
+                    state.segment.close();
+                }
+                for (FileChannel rollup : state.rollups) {
+                    if (rollup != null) {
+                        rollup.close();
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (lockChannel != null) {
+            try {
+                lockChannel.close(); // releases the lock
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+// Visible sample range of a recording: zoomed around an anchor point and panned, always kept
+// inside the recording and never narrower than MIN_LENGTH samples.
+public class Viewport {
+
+    public static final long MIN_LENGTH = 64;
+
+    private long total = 0;
+    private long start = 0;
+    private long length = 0;
+
+    // Shows the whole recording.
+    public void reset(long total) {
+        this.total = total;
+        this.start = 0;
+        this.length = total;
+    }
+
+    // factor < 1 zooms in. anchor is the fraction of the width that stays on the same sample.
+    public void zoom(double anchor, double factor) {
+        if (total == 0) {
+            return;
+        }
+        long anchorSample = start + (long) (anchor * length);
+        long newLength = Math.max(Math.min(MIN_LENGTH, total), Math.min(total, Math.round(length * factor)));
+        start = anchorSample - (long) (anchor * newLength);
+        length = newLength;
+        clamp();
+    }
+
+    public void pan(long samples) {
+        start += samples;
+        clamp();
+    }
+
+    private void clamp() {
+        start = Math.max(0, Math.min(total - length, start));
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getEnd() {
+        return start + length;
+    }
+
+    public boolean isZoomed() {
+        return length < total;
+    }
+}
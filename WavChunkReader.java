@@ -0,0 +1,81 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+// Reads a WAV file in fixed-size chunks so that the whole recording never has to sit on the heap.
+// The byte and sample buffers are allocated once and reused for every chunk.
+public class WavChunkReader implements Closeable {
+
+    public static final int CHUNK_FRAMES = 8192;
+
+    public interface ChunkListener {
+        void onChunk(double[] samples, int count, long firstFrame);
+    }
+
+    private final AudioInputStream audioInputStream;
+    private final AudioFormat format;
+    private final PcmDecoder decoder;
+    private final int frameSize;
+    private final byte[] byteChunk;
+    private final double[] sampleChunk;
+    private long framesRead = 0;
+
+    public WavChunkReader(File file) throws UnsupportedAudioFileException, IOException {
+        audioInputStream = AudioSystem.getAudioInputStream(file);
+        format = audioInputStream.getFormat();
+        decoder = new PcmDecoder(format);
+        frameSize = decoder.getFrameSize();
+        byteChunk = new byte[CHUNK_FRAMES * frameSize];
+        sampleChunk = new double[CHUNK_FRAMES];
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    // Total number of frames, or AudioSystem.NOT_SPECIFIED if the header does not say.
+    public long getFrameLength() {
+        return audioInputStream.getFrameLength();
+    }
+
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    public double[] getSamples() {
+        return sampleChunk;
+    }
+
+    // Fills the sample chunk and returns the number of frames decoded, or 0 at end of stream.
+    // A single read() may return less than asked for, so keep reading until the chunk is full.
+    public int readChunk() throws IOException {
+        int filled = 0;
+        while (filled < byteChunk.length) {
+            int n = audioInputStream.read(byteChunk, filled, byteChunk.length - filled);
+            if (n < 0) {
+                break;
+            }
+            filled += n;
+        }
+
+        int frames = decoder.decode(byteChunk, 0, filled, sampleChunk, 0);
+        framesRead += frames;
+        return frames;
+    }
+
+    public void forEachChunk(ChunkListener listener) throws IOException {
+        int frames;
+        while ((frames = readChunk()) > 0) {
+            listener.onChunk(sampleChunk, frames, framesRead - frames);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        audioInputStream.close();
+    }
+}
@@ -0,0 +1,153 @@
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Streams captured PCM to a WAV file for later review. The capture thread copies each buffer into
+// a preallocated ring and never waits: if the writer falls a whole ring behind, the buffer is
+// skipped and counted. A background thread batches blocks into one direct buffer per FileChannel
+// write, and the RIFF sizes are patched on close, so memory stays constant however long the session.
+public class WavRecorder implements Closeable {
+
+    private static final int HEADER_SIZE = 44;
+    private static final int RING_BLOCKS = 512;
+    private static final int BATCH_BYTES = 1 << 16;
+    // RIFF sizes are 32-bit: past ~13 h of 44.1 kHz mono the data is still written but the header saturates
+    private static final long MAX_DATA_BYTES = 0xFFFFFFFFL - HEADER_SIZE + 8;
+
+    private final File file;
+    private final AudioFormat format;
+    private final FileChannel channel;
+    private final SpscBlockRing ring;
+    private final Thread writerThread;
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private volatile boolean running = true;
+    private volatile long bytesWritten = 0;
+    private IOException failure;
+
+    public WavRecorder(File file, AudioFormat format, int blockSize) throws IOException {
+        if (format.isBigEndian() && format.getSampleSizeInBits() > 8) {
+            throw new IllegalArgumentException("WAV data is little-endian: " + format);
+        }
+        this.file = file;
+        this.format = format;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.ring = new SpscBlockRing(RING_BLOCKS, blockSize);
+        channel.write(header(0), 0); // Sizes are filled in on close
+        channel.position(HEADER_SIZE);
+        writerThread = new Thread(this::writeLoop, "heartbeat-recorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Capture thread: copies the bytes if there is room, otherwise drops them. Never blocks.
+    public boolean offer(byte[] data, int offset, int length) {
+        SpscBlockRing.Block block = ring.claim();
+        if (block == null || length > block.data.length) {
+            droppedBytes.addAndGet(length);
+            return false;
+        }
+        System.arraycopy(data, offset, block.data, 0, length);
+        block.length = length;
+        ring.publish();
+        return true;
+    }
+
+    private void writeLoop() {
+        ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES);
+        try {
+            while (running || ring.size() > 0) {
+                SpscBlockRing.Block block = ring.peek();
+                if (block == null) {
+                    flush(batch);
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+                    continue;
+                }
+                if (batch.remaining() < block.length) {
+                    flush(batch);
+                }
+                batch.put(block.data, 0, block.length);
+                ring.release();
+            }
+            flush(batch);
+        } catch (IOException e) {
+            failure = e;
+            // Keep draining so the capture thread sees free blocks; the rest of the session is lost
+            while (running || ring.size() > 0) {
+                SpscBlockRing.Block block = ring.peek();
+                if (block != null) {
+                    droppedBytes.addAndGet(block.length);
+                    ring.release();
+                } else {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+                }
+            }
+        }
+    }
+
+    private void flush(ByteBuffer batch) throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            bytesWritten += channel.write(batch);
+        }
+        batch.clear();
+    }
+
+    // Canonical 44-byte PCM header for the given data size.
+    private ByteBuffer header(long dataBytes) {
+        long size = Math.min(dataBytes, MAX_DATA_BYTES);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {'R', 'I', 'F', 'F'}).putInt((int) (size + HEADER_SIZE - 8));
+        header.put(new byte[] {'W', 'A', 'V', 'E'});
+        header.put(new byte[] {'f', 'm', 't', ' '}).putInt(16);
+        header.putShort((short) 1) // PCM
+                .putShort((short) format.getChannels())
+                .putInt((int) format.getSampleRate())
+                .putInt((int) format.getSampleRate() * format.getFrameSize())
+                .putShort((short) format.getFrameSize())
+                .putShort((short) format.getSampleSizeInBits());
+        header.put(new byte[] {'d', 'a', 't', 'a'}).putInt((int) size);
+        header.flip();
+        return header;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    // Call after the capture thread has stopped offering. Writes what is queued and patches the header.
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            channel.write(header(bytesWritten), 0);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import java.awt.*;
+import java.util.function.LongToDoubleFunction;
+
+// Draws waveforms as one vertical min/max line per pixel column, so the number of draw calls
+// depends on the panel width rather than on the number of samples.
+// gain is the fraction of the height used for full scale; a negative gain draws positive samples upwards.
+public class WaveformRenderer {
+
+    private WaveformRenderer() {
+    }
+
+    public static void drawSamples(Graphics g, double[] data, int width, int height, double gain) {
+        drawSamples(g, data, data.length, width, height, gain);
+    }
+
+    // Draws the first count samples of data across the width.
+    public static void drawSamples(Graphics g, double[] data, int count, int width, int height, double gain) {
+        if (count == 0 || width <= 0) {
+            return;
+        }
+        if (count <= width) {
+            // Fewer samples than columns: a plain polyline is already cheap
+            int lastX = 0, lastY = toY(data[0], height, gain);
+            for (int i = 0; i < count; i++) {
+                int x = (int) ((long) i * width / count);
+                int y = toY(data[i], height, gain);
+                g.drawLine(lastX, lastY, x, y);
+                lastX = x;
+                lastY = y;
+            }
+            return;
+        }
+
+        double previous = data[0];
+        for (int x = 0; x < width; x++) {
+            int start = (int) ((long) x * count / width);
+            int end = (int) ((long) (x + 1) * count / width);
+            // Start from the previous column's last sample so adjacent columns connect
+            double lo = previous;
+            double hi = previous;
+            for (int i = start; i < end; i++) {
+                if (data[i] < lo) lo = data[i];
+                if (data[i] > hi) hi = data[i];
+            }
+            g.drawLine(x, toY(lo, height, gain), x, toY(hi, height, gain));
+            previous = data[end - 1];
+        }
+    }
+
+    public static void drawPyramid(Graphics g, MinMaxPyramid pyramid, int width, int height, double gain) {
+        drawPyramid(g, pyramid, 0, pyramid.getSampleCount(), width, height, gain);
+    }
+
+    // Draws samples [from, to) of the recording across the width.
+    public static void drawPyramid(Graphics g, MinMaxPyramid pyramid, long from, long to, int width, int height, double gain) {
+        long samples = to - from;
+        if (samples <= 0 || width <= 0) {
+            return;
+        }
+        int level = pyramid.levelFor(samples / (double) width);
+        float[] range = new float[2];
+        for (int x = 0; x < width; x++) {
+            long start = from + x * samples / width;
+            long end = Math.max(start + 1, from + (x + 1) * samples / width);
+            pyramid.range(level, start, end, range);
+            g.drawLine(x, toY(range[0], height, gain), x, toY(range[1], height, gain));
+        }
+    }
+
+    public static void drawPeaks(Graphics g, PeakStore peakIndices, long sampleCount, int width, int height,
+                                 double gain, LongToDoubleFunction valueAt) {
+        drawPeaks(g, peakIndices, 0, sampleCount, width, height, gain, valueAt);
+    }
+
+    // Only the peaks in [from, to) are visited, found by binary search.
+    public static void drawPeaks(Graphics g, PeakStore peakIndices, long from, long to, int width, int height,
+                                 double gain, LongToDoubleFunction valueAt) {
+        long samples = to - from;
+        if (samples <= 0) {
+            return;
+        }
+        int lastX = Integer.MIN_VALUE;
+        for (int k = peakIndices.lowerBound(from); k < peakIndices.size(); k++) {
+            long peakIndex = peakIndices.get(k);
+            if (peakIndex >= to) {
+                break;
+            }
+            int x = (int) ((peakIndex - from) * width / samples);
+            if (x == lastX) {
+                continue; // one marker per column is enough
+            }
+            lastX = x;
+            int y = toY(valueAt.applyAsDouble(peakIndex), height, gain);
+            g.fillOval(x - 3, y - 3, 6, 6);
+        }
+    }
+
+    public static int toY(double sample, int height, double gain) {
+        return height / 2 + (int) (sample * height / Short.MAX_VALUE * gain);
+    }
+}
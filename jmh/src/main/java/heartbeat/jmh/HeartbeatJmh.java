@@ -0,0 +1,70 @@
+package heartbeat.jmh;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// JMH harness for HeartbeatBenchmark's workloads: one forked trial per workload and signal length,
+// each operation one full pass over the synthetic signal. The application classes live in the
+// unnamed package, which a JMH benchmark (always in a named package) cannot import, so the
+// workloads are looked up reflectively once per trial; the measured call is a plain interface call.
+// Besides ops/s, the "samples" counter gives samples/s; add -prof gc for allocation rates.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HeartbeatJmh {
+
+    @Param({"decode.pcm", "decode.wavFile", "threshold.parallel", "threshold.float", "threshold.short",
+            "detect.fromFile", "detect.parallel", "detect.float", "detect.short", "detect.adaptive",
+            "dsp.envelope", "bpm.fft", "analyze.file", "analyze.float", "analyze.short",
+            "live.analyzeBlock", "render.file", "render.live"})
+    public String workload;
+
+    @Param({"10", "600"})
+    public double seconds;
+
+    private LongSupplier body;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Samples {
+        public long samples;
+    }
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws ReflectiveOperationException {
+        Map<String, LongSupplier> workloads = (Map<String, LongSupplier>) Class.forName("HeartbeatBenchmark")
+                .getMethod("workloads", double.class).invoke(null, seconds);
+        body = workloads.get(workload);
+        if (body == null) {
+            throw new IllegalArgumentException("No workload " + workload + "; have " + workloads.keySet());
+        }
+    }
+
+    // The returned count goes to JMH's blackhole; each workload also publishes its result through
+    // a volatile write, so the work itself cannot be optimised away.
+    @Benchmark
+    public long run(Samples counter) {
+        long samples = body.getAsLong();
+        counter.samples += samples;
+        return samples;
+    }
+}
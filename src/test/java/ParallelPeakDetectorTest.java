@@ -0,0 +1,135 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The fork/join detector must give exactly the peaks of the sequential detectPeaksFromFile loop,
+// including where a peak, its neighbours or the minimum distance straddle a segment boundary.
+public class ParallelPeakDetectorTest {
+
+    private static final int SEGMENT = ParallelPeakDetector.SEGMENT_SIZE;
+    private static final int MIN_PEAK_DISTANCE = 7500;
+    private static final double THRESHOLD = 1000;
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @Test
+    public void matchesSequentialOnNoise() {
+        Random random = new Random(1);
+        for (int length : new int[] {SEGMENT * 3 + 17, SEGMENT * 5, ParallelPeakDetector.MIN_PARALLEL_SAMPLES + 1}) {
+            double[] data = new double[length];
+            for (int i = 0; i < length; i++) {
+                data[i] = random.nextGaussian() * 500;
+            }
+            for (int minPeakDistance : new int[] {1, 100, MIN_PEAK_DISTANCE}) {
+                assertSameAsSequential(data, THRESHOLD, minPeakDistance);
+            }
+        }
+    }
+
+    @Test
+    public void resolvesMinimumDistanceAcrossBoundary() {
+        double[] data = new double[SEGMENT * 3];
+        spike(data, SEGMENT - 3, 5000);
+        spike(data, SEGMENT + 100, 9000); // too close to the first, even though it is higher
+        spike(data, SEGMENT + MIN_PEAK_DISTANCE - 3, 5000); // exactly the minimum distance from the first
+        spike(data, 2 * SEGMENT - 1, 5000); // last index of a segment, its right neighbour in the next
+        spike(data, 2 * SEGMENT + 10, 5000);
+        long[] peaks = assertSameAsSequential(data, THRESHOLD, MIN_PEAK_DISTANCE);
+        assertArrayEquals(new long[] {SEGMENT - 3, SEGMENT + MIN_PEAK_DISTANCE - 3, 2 * SEGMENT - 1}, peaks);
+    }
+
+    @Test
+    public void peakOnFirstIndexOfSegment() {
+        double[] data = new double[SEGMENT * 2 + 5];
+        spike(data, SEGMENT, 5000);
+        spike(data, 2 * SEGMENT, 5000);
+        long[] peaks = assertSameAsSequential(data, THRESHOLD, MIN_PEAK_DISTANCE);
+        assertArrayEquals(new long[] {SEGMENT, 2 * SEGMENT}, peaks);
+    }
+
+    @Test
+    public void plateauAcrossBoundaryIsNotAPeak() {
+        double[] data = new double[SEGMENT * 2 + 5];
+        for (int i = SEGMENT - 2; i <= SEGMENT + 2; i++) {
+            data[i] = 5000;
+        }
+        // A plateau only one sample wide on each side of the boundary
+        data[2 * SEGMENT - 1] = 5000;
+        data[2 * SEGMENT] = 5000;
+        long[] peaks = assertSameAsSequential(data, THRESHOLD, 1);
+        assertEquals(0, peaks.length);
+    }
+
+    @Test
+    public void shorterThanOneSegment() {
+        for (int length : new int[] {0, 1, 2, 3, 4, 1000}) {
+            double[] data = new double[length];
+            for (int i = 1; i < length - 1; i += 2) {
+                data[i] = 2000;
+            }
+            assertSameAsSequential(data, THRESHOLD, 1);
+            assertSameAsSequential(data, THRESHOLD, 5);
+        }
+    }
+
+    @Test
+    public void sequentialPathOfAnalyzerAgrees() {
+        // Below MIN_PARALLEL_SAMPLES the analyzer runs its own sequential loop; its threshold and peaks
+        // must be what the parallel detector finds for the same signal
+        double[] data = SyntheticHeartbeat.generate(RecordingAnalyzer.SAMPLE_RATE, 20, 72, 3);
+        RecordingAnalyzer analyzer = new RecordingAnalyzer(false, false, false, pool);
+        long[] sequential = analyzer.detectPeaks(data).toArray();
+        double threshold = ParallelPeakDetector.calculateThreshold(pool, data, 2.5);
+        long[] parallel = ParallelPeakDetector.detectPeaks(pool, data, threshold, MIN_PEAK_DISTANCE).toArray();
+        assertArrayEquals(sequential, parallel);
+    }
+
+    @Test
+    public void thresholdIsBitIdentical() {
+        Random random = new Random(2);
+        double[] data = new double[SEGMENT * 3 + 12345];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextGaussian() * 1000 + 30;
+        }
+        int n = data.length;
+        double mean = ParallelPeakDetector.blockedSum(data, 0, n) / n;
+        double std = Math.sqrt(ParallelPeakDetector.blockedSumSquares(data, mean, 0, n) / n);
+        assertEquals(mean + 2.5 * std, ParallelPeakDetector.calculateThreshold(pool, data, 2.5));
+    }
+
+    private static void spike(double[] data, int index, double height) {
+        data[index] = height;
+        if (index > 0) {
+            data[index - 1] = height / 2;
+        }
+        if (index + 1 < data.length) {
+            data[index + 1] = height / 2;
+        }
+    }
+
+    private long[] assertSameAsSequential(double[] data, double threshold, int minPeakDistance) {
+        long[] expected = sequentialPeaks(data, threshold, minPeakDistance);
+        long[] actual = ParallelPeakDetector.detectPeaks(pool, data, threshold, minPeakDistance).toArray();
+        assertArrayEquals(expected, actual, "length " + data.length + ", minPeakDistance " + minPeakDistance);
+        return actual;
+    }
+
+    // The loop in RecordingAnalyzer.detectPeaksFromFile, for any length.
+    private static long[] sequentialPeaks(double[] data, double threshold, int minPeakDistance) {
+        PeakStore peaks = new PeakStore();
+        int lastPeakIndex = -minPeakDistance;
+        for (int i = 1; i < data.length - 1; i++) {
+            if (data[i] > threshold && data[i] > data[i - 1] && data[i] > data[i + 1]) {
+                if (i - lastPeakIndex >= minPeakDistance) {
+                    peaks.add(i);
+                    lastPeakIndex = i;
+                }
+            }
+        }
+        return peaks.toArray();
+    }
+}
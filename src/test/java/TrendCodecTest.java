@@ -0,0 +1,222 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Every point written by TrendCodec.Encoder must decode to the same time and the same value bits,
+// whichever timestamp and value encodings it took, and again after the block is sealed and the
+// encoder reused. Values are compared as raw bits so NaN payloads and -0.0 count.
+public class TrendCodecTest {
+
+    @Test
+    public void everyTimestampWidth() {
+        // Deltas of delta either side of each width: 0, 7, 9, 12 and 32 bits
+        long[] dods = {0, 1, -1, 63, -64, 64, -65, 255, -256, 256, -257, 2047, -2048, 2048, -2049, 100_000, -100_000};
+        long[] times = new long[dods.length + 2];
+        times[1] = 1000;
+        long delta = 1000;
+        for (int i = 0; i < dods.length; i++) {
+            delta += dods[i];
+            times[i + 2] = times[i + 1] + delta;
+        }
+        double[] values = new double[times.length];
+        Arrays.fill(values, 72.0);
+        assertRoundTrip(times, values);
+    }
+
+    @Test
+    public void largeTimestampJumps() {
+        long[] times = {
+                Long.MIN_VALUE / 2,
+                Long.MIN_VALUE / 2 + Integer.MAX_VALUE, // largest delta a block takes
+                Long.MIN_VALUE / 2 + Integer.MAX_VALUE, // then none: the most negative delta of delta
+                Long.MIN_VALUE / 2 + 2L * Integer.MAX_VALUE,
+                Long.MIN_VALUE / 2 + 2L * Integer.MAX_VALUE + 1,
+                Long.MIN_VALUE / 2 + 3L * Integer.MAX_VALUE + 1,
+        };
+        double[] values = {1, 2, 3, 4, 5, 6};
+        assertRoundTrip(times, values);
+
+        long now = 1_700_000_000_000L;
+        assertRoundTrip(new long[] {now, now, now, now + 1}, new double[] {60, 61, 62, 63});
+    }
+
+    @Test
+    public void rejectsWhatTheBlockCannotHold() {
+        TrendCodec.Encoder encoder = new TrendCodec.Encoder();
+        assertTrue(encoder.add(1000, 1));
+        assertTrue(encoder.add(2000, 2));
+        assertFalse(encoder.add(1999, 3), "time going backwards");
+        assertFalse(encoder.add(2000 + Integer.MAX_VALUE + 1L, 3), "delta beyond an int");
+        // A rejected point leaves the block as it was
+        assertEquals(2, encoder.getCount());
+        assertEquals(2000, encoder.getLastTime());
+        assertTrue(encoder.add(3000, 3));
+        assertDecodes(encoder, new long[] {1000, 2000, 3000}, new double[] {1, 2, 3});
+    }
+
+    @Test
+    public void repeatedValues() {
+        long[] times = new long[200];
+        double[] values = new double[times.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = i * 1000L;
+            values[i] = i < 100 ? 72.5 : i < 150 ? 0 : 72.5; // long runs, back to zero and back again
+        }
+        TrendCodec.Encoder encoder = encode(times, values);
+        assertDecodes(encoder, times, values);
+        // The raw first point, then two bits a point but for the two changes of value
+        assertTrue(encoder.getByteSize() <= 16 + 200 * 2 / 8 + 16, "size " + encoder.getByteSize());
+    }
+
+    @Test
+    public void specialValues() {
+        double[] values = {
+                0.0, -0.0, 0.0, -0.0, -0.0,
+                Double.NaN, Double.NaN, Double.longBitsToDouble(0x7ff8_0000_0000_0001L), Double.longBitsToDouble(0xfff0_0000_0000_0001L),
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MIN_VALUE,
+                Double.MAX_VALUE, -Double.MAX_VALUE, 1.0, Double.longBitsToDouble(1L << 63 | 1L), 1.0,
+        };
+        long[] times = new long[values.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = i * 1000L;
+        }
+        assertRoundTrip(times, values);
+    }
+
+    @Test
+    public void randomSeries() {
+        Random random = new Random(1);
+        for (int round = 0; round < 50; round++) {
+            int n = 1 + random.nextInt(2000);
+            long[] times = new long[n];
+            double[] values = new double[n];
+            times[0] = random.nextLong() >> 2;
+            values[0] = random.nextGaussian() * 1000;
+            for (int i = 1; i < n; i++) {
+                int kind = random.nextInt(4);
+                times[i] = times[i - 1] + (kind == 0 ? 1000 : kind == 1 ? random.nextInt(3000) : random.nextInt(Integer.MAX_VALUE));
+                kind = random.nextInt(4);
+                values[i] = kind == 0 ? values[i - 1]
+                        : kind == 1 ? Math.round(random.nextGaussian() * 20 + 70)
+                        : kind == 2 ? Double.longBitsToDouble(random.nextLong())
+                        : random.nextGaussian();
+            }
+            assertRoundTrip(times, values);
+        }
+    }
+
+    @Test
+    public void encoderIsReusedAfterSealing() {
+        // A block grown over many words, then reset as TrendStore does when it seals; the next block
+        // must not carry any of its bits or its value window
+        Random random = new Random(2);
+        TrendCodec.Encoder encoder = new TrendCodec.Encoder();
+        for (int block = 0; block < 5; block++) {
+            int n = block % 2 == 0 ? 3000 : 3;
+            long[] times = new long[n];
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                times[i] = block * 10_000_000L + i * 1000L + random.nextInt(50);
+                values[i] = block % 2 == 0 ? Double.longBitsToDouble(random.nextLong()) : 1.0;
+            }
+            encoder.reset();
+            for (int i = 0; i < n; i++) {
+                assertTrue(encoder.add(times[i], values[i]));
+            }
+            assertDecodes(encoder, times, values);
+        }
+    }
+
+    @Test
+    public void storeRollsOverBlocksAndSegments() throws IOException {
+        // Random values fill a 4 KiB block every few hundred points, and the series crosses an hour,
+        // so points are read back from several blocks in two segment files
+        File dir = Files.createTempDirectory("trendcodec").toFile();
+        try {
+            Random random = new Random(3);
+            int n = 3000;
+            long[] times = new long[n];
+            double[] values = new double[n];
+            long hour = 3_600_000L * 470_000;
+            for (int i = 0; i < n; i++) {
+                times[i] = hour - 1_500_000 + i * 1000L;
+                values[i] = i % 97 == 0 ? Double.NaN : i % 89 == 0 ? -0.0 : Double.longBitsToDouble(random.nextLong() >>> 2);
+            }
+            TrendStore store = new TrendStore(dir);
+            try {
+                for (int i = 0; i < n; i++) {
+                    assertTrue(store.offer(TrendStore.Metric.BPM, times[i], values[i]));
+                }
+            } finally {
+                store.close();
+            }
+            assertEquals(0, store.getDroppedPoints());
+            File[] segments = dir.listFiles((d, name) -> name.startsWith("bpm-") && name.endsWith(".seg"));
+            assertEquals(2, segments.length);
+
+            long[] readTimes = new long[n];
+            long[] readBits = new long[n];
+            int[] count = {0};
+            try (TrendStore reader = TrendStore.openReadOnly(dir)) {
+                reader.readRaw(TrendStore.Metric.BPM, Long.MIN_VALUE, Long.MAX_VALUE, (time, value) -> {
+                    readTimes[count[0]] = time;
+                    readBits[count[0]++] = Double.doubleToRawLongBits(value);
+                });
+            }
+            assertEquals(n, count[0]);
+            assertArrayEquals(times, readTimes);
+            assertArrayEquals(bits(values), readBits);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void assertRoundTrip(long[] times, double[] values) {
+        assertDecodes(encode(times, values), times, values);
+    }
+
+    private static TrendCodec.Encoder encode(long[] times, double[] values) {
+        TrendCodec.Encoder encoder = new TrendCodec.Encoder();
+        for (int i = 0; i < times.length; i++) {
+            assertTrue(encoder.add(times[i], values[i]), "point " + i + " at " + times[i]);
+        }
+        assertEquals(times.length, encoder.getCount());
+        assertEquals(times[0], encoder.getFirstTime());
+        assertEquals(times[times.length - 1], encoder.getLastTime());
+        return encoder;
+    }
+
+    private static void assertDecodes(TrendCodec.Encoder encoder, long[] times, double[] values) {
+        int n = encoder.getCount();
+        long[] decodedTimes = new long[n];
+        long[] decodedBits = new long[n];
+        int[] count = {0};
+        TrendCodec.decode(encoder.toBytes(), n, (time, value) -> {
+            decodedTimes[count[0]] = time;
+            decodedBits[count[0]++] = Double.doubleToRawLongBits(value);
+        });
+        assertEquals(times.length, count[0]);
+        assertArrayEquals(times, decodedTimes);
+        assertArrayEquals(bits(values), decodedBits);
+    }
+
+    private static long[] bits(double[] values) {
+        long[] bits = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bits[i] = Double.doubleToRawLongBits(values[i]);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,181 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// VectorKernels against the ScalarKernels reference, to the agreement SampleKernels documents:
+// float sums within rounding, short sums exact, localMaxima identical. Lengths include tails that
+// are not a multiple of any lane count, and short sums long enough to cross the int-lane flush.
+// Only compiled and run with -Pvector.
+public class VectorKernelsTest {
+
+    private static final double RELATIVE_TOLERANCE = 1e-12;
+    private static final int[] LENGTHS = {0, 1, 7, 31, 63, 65, 1000, 4099, 1 << 16, (1 << 16) + 13};
+
+    private final SampleKernels scalar = new ScalarKernels();
+    private final SampleKernels vector = new VectorKernels();
+
+    @Test
+    public void floatSumsAgreeWithinRounding() {
+        Random random = new Random(1);
+        for (int length : LENGTHS) {
+            float[] data = floats(random, length);
+            for (int from : new int[] {0, Math.min(3, length)}) {
+                double sum = scalar.sum(data, from, length);
+                double magnitude = 0;
+                for (int i = from; i < length; i++) {
+                    magnitude += Math.abs(data[i]);
+                }
+                assertEquals(sum, vector.sum(data, from, length), RELATIVE_TOLERANCE * magnitude, "sum of " + length);
+
+                double mean = length > from ? sum / (length - from) : 0;
+                double squares = scalar.sumSquares(data, mean, from, length);
+                assertEquals(squares, vector.sumSquares(data, mean, from, length), RELATIVE_TOLERANCE * squares,
+                        "sumSquares of " + length);
+            }
+        }
+    }
+
+    @Test
+    public void shortSumsAreExact() {
+        Random random = new Random(2);
+        for (int length : LENGTHS) {
+            short[] data = shorts(random, length);
+            for (int from : new int[] {0, Math.min(5, length)}) {
+                assertEquals(scalar.sum(data, from, length), vector.sum(data, from, length), "sum of " + length);
+                assertEquals(scalar.sumSquares(data, from, length), vector.sumSquares(data, from, length), "sumSquares of " + length);
+            }
+        }
+    }
+
+    @Test
+    public void shortSumsAcrossIntFlush() {
+        // An int lane is flushed every 2^15 vectors; full-scale samples either side of that for every
+        // lane count up to 64 shorts would overflow it if the flush came one vector late
+        for (int lanes : new int[] {8, 16, 32, 64}) {
+            int flushLength = (1 << 15) * lanes;
+            for (int length : new int[] {flushLength - 1, flushLength, flushLength + 1, flushLength + lanes + 3}) {
+                for (short value : new short[] {Short.MAX_VALUE, Short.MIN_VALUE}) {
+                    short[] data = new short[length];
+                    java.util.Arrays.fill(data, value);
+                    assertEquals((long) value * length, vector.sum(data, 0, length), "sum of " + length + " x " + value);
+                    assertEquals(scalar.sumSquares(data, 0, length), vector.sumSquares(data, 0, length),
+                            "sumSquares of " + length + " x " + value);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void floatPeaksAreIdentical() {
+        Random random = new Random(3);
+        for (int length : LENGTHS) {
+            if (length < 3) {
+                continue;
+            }
+            float[] data = floats(random, length);
+            for (float threshold : new float[] {Float.NEGATIVE_INFINITY, 0, 1500, 1e9f}) {
+                for (int capacity : new int[] {1, 7, length}) {
+                    assertArrayEquals(
+                            maxima(scalar, data, threshold, capacity),
+                            maxima(vector, data, threshold, capacity),
+                            "float peaks of " + length + " over " + threshold + ", " + capacity + " at a time");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shortPeaksAreIdentical() {
+        Random random = new Random(4);
+        for (int length : LENGTHS) {
+            if (length < 3) {
+                continue;
+            }
+            short[] data = shorts(random, length);
+            for (int threshold : new int[] {Integer.MIN_VALUE, Short.MIN_VALUE - 1, 0, 1500, Short.MAX_VALUE}) {
+                for (int capacity : new int[] {1, 7, length}) {
+                    assertArrayEquals(
+                            maxima(scalar, data, threshold, capacity),
+                            maxima(vector, data, threshold, capacity),
+                            "short peaks of " + length + " over " + threshold + ", " + capacity + " at a time");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rectifiedMeansAgree() {
+        Random random = new Random(5);
+        int length = 4099;
+        float[] floats = floats(random, length);
+        short[] shorts = shorts(random, length);
+        shorts[17] = Short.MIN_VALUE; // |-32768| must not wrap
+        for (int decimation : new int[] {1, 3, 64, 441}) {
+            int groups = (length - 1) / decimation;
+            double[] expected = new double[groups];
+            double[] actual = new double[groups];
+            scalar.rectifiedMeans(floats, 1, groups, decimation, expected, 0);
+            vector.rectifiedMeans(floats, 1, groups, decimation, actual, 0);
+            for (int g = 0; g < groups; g++) {
+                assertEquals(expected[g], actual[g], RELATIVE_TOLERANCE * expected[g], "float group " + g);
+            }
+            scalar.rectifiedMeans(shorts, 1, groups, decimation, expected, 0);
+            vector.rectifiedMeans(shorts, 1, groups, decimation, actual, 0);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    // Every local maximum, collected capacity at a time and resumed after the last one, as
+    // ParallelPeakDetector does.
+    private static int[] maxima(SampleKernels kernels, float[] data, float threshold, int capacity) {
+        return collect(data.length, capacity, (from, to, out) -> kernels.localMaxima(data, from, to, threshold, out));
+    }
+
+    private static int[] maxima(SampleKernels kernels, short[] data, int threshold, int capacity) {
+        return collect(data.length, capacity, (from, to, out) -> kernels.localMaxima(data, from, to, threshold, out));
+    }
+
+    private interface Scan {
+        int scan(int from, int to, int[] out);
+    }
+
+    private static int[] collect(int length, int capacity, Scan scan) {
+        int[] out = new int[capacity];
+        int[] all = new int[length];
+        int total = 0;
+        int from = 1;
+        int to = length - 1;
+        while (from < to) {
+            int count = scan.scan(from, to, out);
+            System.arraycopy(out, 0, all, total, count);
+            total += count;
+            if (count < capacity) {
+                break;
+            }
+            from = out[count - 1] + 1;
+        }
+        assertTrue(total <= length);
+        return java.util.Arrays.copyOf(all, total);
+    }
+
+    // Heart-sound-like levels with exact repeats, so ties with a neighbour are common.
+    private static float[] floats(Random random, int length) {
+        float[] data = new float[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = random.nextInt(8) == 0 ? data[Math.max(0, i - 1)] : (float) (random.nextGaussian() * 1000);
+        }
+        return data;
+    }
+
+    private static short[] shorts(Random random, int length) {
+        short[] data = new short[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = random.nextInt(8) == 0 ? data[Math.max(0, i - 1)] : (short) (random.nextInt(1 << 16) - (1 << 15));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,213 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// SampleKernels on the preferred vector width of the machine. Floats are widened to double lanes
+// before they are added, and shorts to int and long lanes, so accuracy matches the scalar loops;
+// only the order of the additions differs. Tails shorter than a vector run the scalar code.
+// Kept in its own directory because it only compiles with --add-modules jdk.incubator.vector.
+public class VectorKernels implements SampleKernels {
+
+    private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> S = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> I = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> L = LongVector.SPECIES_PREFERRED;
+    private static final int F_PARTS = F.length() / D.length();
+    private static final int S_PARTS = S.length() / I.length();
+    private static final int I_PARTS = I.length() / L.length();
+    private static final int INT_FLUSH = 1 << 15; // vectors of shorts an int lane can add without overflow
+
+    private final ScalarKernels tail = new ScalarKernels();
+
+    @Override
+    public String getName() {
+        return "vector-" + F.vectorBitSize();
+    }
+
+    @Override
+    public double sum(float[] data, int from, int to) {
+        DoubleVector acc = DoubleVector.zero(D);
+        int i = from;
+        for (int upper = to - F.length(); i <= upper; i += F.length()) {
+            FloatVector v = FloatVector.fromArray(F, data, i);
+            for (int part = 0; part < F_PARTS; part++) {
+                acc = acc.add(v.convertShape(VectorOperators.F2D, D, part));
+            }
+        }
+        return acc.reduceLanes(VectorOperators.ADD) + tail.sum(data, i, to);
+    }
+
+    @Override
+    public double sumSquares(float[] data, double mean, int from, int to) {
+        DoubleVector acc = DoubleVector.zero(D);
+        int i = from;
+        for (int upper = to - F.length(); i <= upper; i += F.length()) {
+            FloatVector v = FloatVector.fromArray(F, data, i);
+            for (int part = 0; part < F_PARTS; part++) {
+                DoubleVector d = ((DoubleVector) v.convertShape(VectorOperators.F2D, D, part)).sub(mean);
+                acc = d.fma(d, acc);
+            }
+        }
+        return acc.reduceLanes(VectorOperators.ADD) + tail.sumSquares(data, mean, i, to);
+    }
+
+    @Override
+    public long sum(short[] data, int from, int to) {
+        long total = 0;
+        IntVector acc = IntVector.zero(I);
+        int pending = 0;
+        int i = from;
+        for (int upper = to - S.length(); i <= upper; i += S.length()) {
+            ShortVector v = ShortVector.fromArray(S, data, i);
+            for (int part = 0; part < S_PARTS; part++) {
+                acc = acc.add(v.convertShape(VectorOperators.S2I, I, part));
+            }
+            if (++pending == INT_FLUSH) {
+                total += sumLanes(acc);
+                acc = IntVector.zero(I);
+                pending = 0;
+            }
+        }
+        return total + sumLanes(acc) + tail.sum(data, i, to);
+    }
+
+    // The int lanes added as longs; reduceLanesToLong adds in int and wraps past 2^31.
+    private static long sumLanes(IntVector v) {
+        long total = 0;
+        for (int half = 0; half < I_PARTS; half++) {
+            total += ((LongVector) v.convertShape(VectorOperators.I2L, L, half)).reduceLanes(VectorOperators.ADD);
+        }
+        return total;
+    }
+
+    @Override
+    public long sumSquares(short[] data, int from, int to) {
+        LongVector acc = LongVector.zero(L);
+        int i = from;
+        for (int upper = to - S.length(); i <= upper; i += S.length()) {
+            ShortVector v = ShortVector.fromArray(S, data, i);
+            for (int part = 0; part < S_PARTS; part++) {
+                IntVector x = (IntVector) v.convertShape(VectorOperators.S2I, I, part);
+                IntVector squares = x.mul(x); // at most 2^30
+                for (int half = 0; half < I_PARTS; half++) {
+                    acc = acc.add(squares.convertShape(VectorOperators.I2L, L, half));
+                }
+            }
+        }
+        return acc.reduceLanes(VectorOperators.ADD) + tail.sumSquares(data, i, to);
+    }
+
+    @Override
+    public int localMaxima(float[] data, int from, int to, float threshold, int[] out) {
+        int count = 0;
+        int i = from;
+        for (int upper = to - F.length(); i <= upper; i += F.length()) {
+            FloatVector v = FloatVector.fromArray(F, data, i);
+            VectorMask<Float> above = v.compare(VectorOperators.GT, threshold);
+            if (!above.anyTrue()) {
+                continue; // most of a recording is below the threshold
+            }
+            VectorMask<Float> peaks = above
+                    .and(v.compare(VectorOperators.GT, FloatVector.fromArray(F, data, i - 1)))
+                    .and(v.compare(VectorOperators.GT, FloatVector.fromArray(F, data, i + 1)));
+            count = collect(peaks.toLong(), i, out, count);
+            if (count == out.length) {
+                return count;
+            }
+        }
+        for (; i < to && count < out.length; i++) {
+            if (data[i] > threshold && data[i] > data[i - 1] && data[i] > data[i + 1]) {
+                out[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int localMaxima(short[] data, int from, int to, int threshold, int[] out) {
+        if (threshold >= Short.MAX_VALUE) {
+            return 0;
+        }
+        int count = 0;
+        int i = from;
+        for (int upper = to - S.length(); i <= upper; i += S.length()) {
+            ShortVector v = ShortVector.fromArray(S, data, i);
+            VectorMask<Short> above = threshold < Short.MIN_VALUE
+                    ? S.maskAll(true) : v.compare(VectorOperators.GT, (short) threshold);
+            if (!above.anyTrue()) {
+                continue;
+            }
+            VectorMask<Short> peaks = above
+                    .and(v.compare(VectorOperators.GT, ShortVector.fromArray(S, data, i - 1)))
+                    .and(v.compare(VectorOperators.GT, ShortVector.fromArray(S, data, i + 1)));
+            count = collect(peaks.toLong(), i, out, count);
+            if (count == out.length) {
+                return count;
+            }
+        }
+        for (; i < to && count < out.length; i++) {
+            if (data[i] > threshold && data[i] > data[i - 1] && data[i] > data[i + 1]) {
+                out[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    // Appends the index of every set lane, stopping when out is full.
+    private static int collect(long lanes, int base, int[] out, int count) {
+        while (lanes != 0 && count < out.length) {
+            out[count++] = base + Long.numberOfTrailingZeros(lanes);
+            lanes &= lanes - 1;
+        }
+        return count;
+    }
+
+    @Override
+    public void rectifiedMeans(float[] data, int from, int groups, int decimation, double[] out, int outOffset) {
+        for (int g = 0; g < groups; g++) {
+            int start = from + g * decimation;
+            int end = start + decimation;
+            DoubleVector acc = DoubleVector.zero(D);
+            int i = start;
+            for (int upper = end - F.length(); i <= upper; i += F.length()) {
+                FloatVector v = FloatVector.fromArray(F, data, i).abs();
+                for (int part = 0; part < F_PARTS; part++) {
+                    acc = acc.add(v.convertShape(VectorOperators.F2D, D, part));
+                }
+            }
+            double sum = acc.reduceLanes(VectorOperators.ADD);
+            for (; i < end; i++) {
+                sum += Math.abs(data[i]);
+            }
+            out[outOffset + g] = sum / decimation;
+        }
+    }
+
+    @Override
+    public void rectifiedMeans(short[] data, int from, int groups, int decimation, double[] out, int outOffset) {
+        for (int g = 0; g < groups; g++) {
+            int start = from + g * decimation;
+            int end = start + decimation;
+            IntVector acc = IntVector.zero(I);
+            int i = start;
+            for (int upper = end - S.length(); i <= upper; i += S.length()) {
+                ShortVector v = ShortVector.fromArray(S, data, i);
+                for (int part = 0; part < S_PARTS; part++) {
+                    // Widen before abs: |-32768| does not fit in a short
+                    acc = acc.add(((IntVector) v.convertShape(VectorOperators.S2I, I, part)).abs());
+                }
+            }
+            long sum = sumLanes(acc);
+            for (; i < end; i++) {
+                sum += Math.abs(data[i]);
+            }
+            out[outOffset + g] = sum / (double) decimation;
+        }
+    }
+}